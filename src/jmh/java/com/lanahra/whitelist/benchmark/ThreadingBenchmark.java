@@ -0,0 +1,123 @@
+package com.lanahra.whitelist.benchmark;
+
+import com.lanahra.whitelist.matcher.Whitelist;
+import com.lanahra.whitelist.service.BoundedExecutor;
+import com.lanahra.whitelist.service.VirtualThreads;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ThreadingBenchmark
+ * Validations run concurrently, each one blocking for a while, as a
+ * consumer does on a database read or a broker round trip, then matching
+ * a URL against a resident whitelist. Compares the fixed platform thread
+ * pool against virtual threads bounded by a semaphore, both allowing the
+ * same concurrency. The virtual mode requires Java 21:
+ *     mvn -P jmh compile exec:exec -Djmh.includes=ThreadingBenchmark
+ *
+ * Threads:
+ *     platform, fixed pool of concurrency threads
+ *     virtual, one virtual thread per validation, concurrency at once
+ *
+ * Blocking time of every validation, in microseconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadingBenchmark {
+
+    private static final String CLIENT = "client";
+
+    private static final int VALIDATIONS = 1000;
+
+    private static final int EXPRESSIONS = 1000;
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    @Param({"16", "256"})
+    private int concurrency;
+
+    @Param({"0", "1000"})
+    private long blockMicros;
+
+    private ExecutorService pool;
+
+    private Executor executor;
+
+    private Whitelist whitelist;
+
+    private List<String> urls;
+
+    @Setup
+    public void setUp() {
+        whitelist = new Whitelist();
+        List<String> regexes = new ArrayList<>(EXPRESSIONS);
+        urls = new ArrayList<>(VALIDATIONS);
+
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            regexes.add(".*/c" + i + "/.*");
+        }
+
+        for (int i = 0; i < VALIDATIONS; i++) {
+            urls.add("https://example.com/c" + (i * 2) + "/index");
+        }
+
+        whitelist.addAll(CLIENT, regexes);
+
+        if ("virtual".equals(threads)) {
+            pool = VirtualThreads.executor("bench-");
+            executor = new BoundedExecutor(pool, concurrency);
+        } else {
+            pool = Executors.newFixedThreadPool(concurrency);
+            executor = pool;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALIDATIONS)
+    public void validate(Blackhole blackhole) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(VALIDATIONS);
+
+        for (String url : urls) {
+            executor.execute(() -> {
+                if (blockMicros > 0) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(blockMicros));
+                }
+
+                blackhole.consume(whitelist.match(CLIENT, url));
+                done.countDown();
+            });
+        }
+
+        done.await();
+    }
+}
@@ -0,0 +1,163 @@
+package com.lanahra.whitelist.benchmark;
+
+import com.lanahra.whitelist.matcher.MatchCache;
+import com.lanahra.whitelist.matcher.Whitelist;
+import com.lanahra.whitelist.service.RequestLog;
+import com.lanahra.whitelist.service.Service;
+import com.lanahra.whitelist.service.ServiceMetrics;
+import com.lanahra.whitelist.service.ValidationRequest;
+import com.lanahra.whitelist.service.ValidationResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ValidationBenchmark
+ * Validation of a single URL through the Service, against synthetic global
+ * and client whitelists held in memory, so neither MySQL nor RabbitMQ are
+ * needed. Run with the gc profiler, enabled by the jmh profile, to report
+ * allocations per operation along with the time per operation.
+ *
+ * Complexity of the expressions:
+ *     host, anchored on a literal host, selected by host lookup
+ *     literal, with a required literal, selected by the Aho-Corasick prefilter
+ *     alternation, top level alternation without literal, always verified
+ *
+ * Engine of both whitelists, jdk or linear.
+ *
+ * Position of the matching expression:
+ *     first, first expression of the global whitelist
+ *     last, last expression of the client whitelist
+ *     none, no expression matches
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private static final String CLIENT = "client";
+
+    @Param({"100", "10000"})
+    private int globalSize;
+
+    @Param({"10", "1000"})
+    private int clientSize;
+
+    @Param({"host", "literal", "alternation"})
+    private String complexity;
+
+    @Param({"first", "last", "none"})
+    private String position;
+
+    @Param({"jdk", "linear"})
+    private String engine;
+
+    @Param({"false"})
+    private boolean cache;
+
+    private Service service;
+
+    private ValidationRequest request;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        Whitelist whitelist = new Whitelist();
+        whitelist.setGlobalEngine(engine);
+        whitelist.setClientEngine(engine);
+
+        if (cache) {
+            inject(whitelist, "matchCache", new MatchCache(10000, 60000));
+        }
+
+        whitelist.addAll(null, regexes("g", globalSize));
+        whitelist.addAll(CLIENT, regexes("c", clientSize));
+
+        service = new Service();
+        inject(service, "whitelist", whitelist);
+        inject(service, "metrics", new ServiceMetrics(new SimpleMeterRegistry()));
+        inject(service, "requestLog", new RequestLog());
+
+        request = new ValidationRequest();
+        request.setClient(CLIENT);
+        request.setCorrelationId(0);
+
+        switch (position) {
+            case "first":
+                request.setUrl(url("g", 0));
+                break;
+            case "last":
+                request.setUrl(url("c", clientSize - 1));
+                break;
+            default:
+                request.setUrl(url("x", 0));
+        }
+
+        if (!service.processExpressionValidation(request).join().getMatch().equals(!"none".equals(position))) {
+            throw new IllegalStateException("Unexpected result for " + request);
+        }
+    }
+
+    @Benchmark
+    public ValidationResponse validate() {
+        return service.processExpressionValidation(request).join();
+    }
+
+    private List<String> regexes(String prefix, int size) {
+        List<String> regexes = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            regexes.add(regex(prefix, i));
+        }
+
+        return regexes;
+    }
+
+    private String regex(String prefix, int i) {
+        switch (complexity) {
+            case "host":
+                return "https://" + prefix + i + "\\.example\\.com/.*";
+            case "literal":
+                return ".*/" + prefix + i + "/.*";
+            default:
+                return "(?:https?://)?(?:www\\.)?alpha-" + prefix + i + "\\.(?:com|net)/.*"
+                    + "|(?:https?://)?beta-" + prefix + i + "\\.(?:com|net)/.*";
+        }
+    }
+
+    private String url(String prefix, int i) {
+        switch (complexity) {
+            case "host":
+                return "https://" + prefix + i + ".example.com/index";
+            case "literal":
+                return "https://example.com/" + prefix + i + "/index";
+            default:
+                return "https://www.alpha-" + prefix + i + ".com/index";
+        }
+    }
+
+    /**
+     * Collaborators are injected by Spring in the application, set them
+     * directly so no context is started
+     */
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,68 @@
+package com.lanahra.whitelist.entity;
+
+import com.lanahra.whitelist.validation.ValidPattern;
+import java.util.ArrayList;
+import java.util.List;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+/**
+ * BulkExpression
+ *
+ * This class is used to validate incoming bulk import messages, carrying
+ * every regular expression of a single whitelist, the global one if client
+ * is null, or the one of the client otherwise. Each regular expression is
+ * validated under the same constraints of Expression.
+ *
+ * @see Expression
+ */
+public class BulkExpression {
+
+    @Size(min = 1, max = 128)
+    private String client;
+
+    @NotNull
+    @Size(min = 1, max = 100000)
+    private List<@NotNull @ValidPattern @Size(min = 1, max = 128) String> regexes;
+
+    public String getClient() {
+        return client;
+    }
+
+    public void setClient(String client) {
+        this.client = client;
+    }
+
+    public List<String> getRegexes() {
+        return regexes;
+    }
+
+    public void setRegexes(List<String> regexes) {
+        this.regexes = regexes;
+    }
+
+    /**
+     * @return one Expression for each regular expression, in order
+     */
+    public List<Expression> toExpressions() {
+        List<Expression> expressions = new ArrayList<>(regexes.size());
+
+        for (String regex : regexes) {
+            Expression expression = new Expression();
+            expression.setClient(client);
+            expression.setRegex(regex);
+            expressions.add(expression);
+        }
+
+        return expressions;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkExpression [client="
+            + client
+            + ", regexes="
+            + (regexes == null ? null : regexes.size())
+            + "]";
+    }
+}
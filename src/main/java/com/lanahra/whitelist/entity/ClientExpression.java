@@ -2,16 +2,17 @@ package com.lanahra.whitelist.entity;
 
 import javax.persistence.Entity;
 import javax.persistence.Table;
-import javax.persistence.UniqueConstraint;
 
 /**
  * ClientExpression
  * Whitelist with expressions for each client, composite client and regular
- * expression must be unique.
+ * expression must be unique, enforced on the client and the hash of the
+ * regular expression.
+ *
+ * Schema is managed by the migrations in db/migration.
  */
 @Entity
-@Table(name = "client_whitelist",
-uniqueConstraints = {@UniqueConstraint(columnNames = {"client", "regex"})})
+@Table(name = "client_whitelist")
 public class ClientExpression extends Expression {
 
     public ClientExpression() {
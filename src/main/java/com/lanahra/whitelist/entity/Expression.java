@@ -1,6 +1,7 @@
 package com.lanahra.whitelist.entity;
 
 import com.lanahra.whitelist.validation.ValidPattern;
+import javax.persistence.Column;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -26,15 +27,17 @@ import javax.validation.constraints.Size;
 public class Expression {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
 
     @Size(min = 1, max = 128)
+    @Column(length = 128)
     protected String client;
 
     @NotNull
     @ValidPattern
     @Size(min = 1, max = 128)
+    @Column(nullable = false, length = 128)
     protected String regex;
 
     public Integer getId() {
@@ -0,0 +1,131 @@
+package com.lanahra.whitelist.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Batch insertion of Expressions in both whitelists
+ * Expressions are inserted with JDBC batches of $INSERTION_JDBC_BATCH_SIZE
+ * statements, duplicates of an existing Expression are ignored by the unique
+ * constraints of the tables instead of failing the whole batch.
+ *
+ * Batches are only sent as multi-row statements, in a single round trip, if
+ * the JDBC URL sets rewriteBatchedStatements=true. Rewritten statements do
+ * not report which rows were ignored, so the Expressions already persisted
+ * are read within the same transaction before inserting. An Expression
+ * inserted concurrently by another instance may still be reported as
+ * inserted, which only repeats an idempotent change.
+ */
+@Repository
+public class ExpressionBatchRepository {
+
+    private static final String INSERT_GLOBAL =
+        "INSERT IGNORE INTO global_whitelist (regex) VALUES (?)";
+
+    private static final String INSERT_CLIENT =
+        "INSERT IGNORE INTO client_whitelist (client, regex) VALUES (?, ?)";
+
+    private static final String SELECT_GLOBAL =
+        "SELECT regex FROM global_whitelist WHERE regex_hash IN (%s)";
+
+    private static final String SELECT_CLIENT =
+        "SELECT regex FROM client_whitelist WHERE client = ? AND regex_hash IN (%s)";
+
+    private static final String HASH = "UNHEX(SHA2(?, 256))";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${INSERTION_JDBC_BATCH_SIZE:500}")
+    private Integer batchSize;
+
+    /**
+     * Insert Expressions in the Global Whitelist, if client is null, or in
+     * the Client Whitelist otherwise, within a single transaction
+     *
+     * @return Expressions actually inserted, without the duplicates
+     */
+    @Transactional
+    public List<Expression> insertIgnore(List<Expression> expressions) {
+        List<Expression> global = new ArrayList<>();
+        Map<String, List<Expression>> clients = new LinkedHashMap<>();
+
+        for (Expression expression : expressions) {
+            if (expression.getClient() == null) {
+                global.add(expression);
+            } else {
+                clients.computeIfAbsent(expression.getClient(), c -> new ArrayList<>()).add(expression);
+            }
+        }
+
+        List<Expression> inserted = new ArrayList<>(absent(SELECT_GLOBAL, null, global));
+        int globalCount = inserted.size();
+
+        clients.forEach((client, clientExpressions) ->
+            inserted.addAll(absent(SELECT_CLIENT, client, clientExpressions)));
+
+        insert(INSERT_GLOBAL, inserted.subList(0, globalCount), (statement, expression) ->
+            statement.setString(1, expression.getRegex()));
+
+        insert(INSERT_CLIENT, inserted.subList(globalCount, inserted.size()), (statement, expression) -> {
+            statement.setString(1, expression.getClient());
+            statement.setString(2, expression.getRegex());
+        });
+
+        return inserted;
+    }
+
+    /**
+     * @return first occurrence of each Expression of a single whitelist
+     *     not persisted yet, in order
+     */
+    private List<Expression> absent(String sql, String client, List<Expression> expressions) {
+        Set<String> persisted = new HashSet<>();
+
+        for (int from = 0; from < expressions.size(); from += batchSize) {
+            List<Expression> chunk = expressions.subList(from, Math.min(from + batchSize, expressions.size()));
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+
+            if (client != null) {
+                args.add(client);
+            }
+
+            for (Expression expression : chunk) {
+                args.add(expression.getRegex());
+            }
+
+            String query = String.format(sql, String.join(", ", Collections.nCopies(chunk.size(), HASH)));
+            persisted.addAll(jdbcTemplate.queryForList(query, String.class, args.toArray()));
+        }
+
+        List<Expression> absent = new ArrayList<>();
+
+        for (Expression expression : expressions) {
+            if (persisted.add(expression.getRegex())) {
+                absent.add(expression);
+            }
+        }
+
+        return absent;
+    }
+
+    private void insert(String sql, List<Expression> expressions,
+            ParameterizedPreparedStatementSetter<Expression> setter) {
+        if (expressions.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(sql, expressions, batchSize, setter);
+    }
+}
@@ -0,0 +1,141 @@
+package com.lanahra.whitelist.entity;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Sequential scan of Expressions in both whitelists
+ * Rows are read in order of id, by keyset pagination, each page starts after
+ * the greatest id of the previous one, so every page costs the same however
+ * deep the scan goes, and no count is ever run. Rows are projected straight
+ * to regular expressions, without any managed entity, and handed over one
+ * page at a time, grouped by whitelist, so memory is bounded by the page
+ * size, $LOAD_PAGE_SIZE rows.
+ */
+@Repository
+public class ExpressionScanRepository {
+
+    private static final String SELECT_GLOBAL =
+        "SELECT id, NULL, regex FROM global_whitelist WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_CLIENTS =
+        "SELECT id, client, regex FROM client_whitelist WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String SELECT_CLIENT =
+        "SELECT id, client, regex FROM client_whitelist WHERE client = ? AND id > ? ORDER BY id LIMIT ?";
+
+    private static final String EXISTS_GLOBAL =
+        "SELECT COUNT(*) FROM global_whitelist WHERE id = ?";
+
+    private static final String EXISTS_CLIENT =
+        "SELECT COUNT(*) FROM client_whitelist WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${LOAD_PAGE_SIZE:10000}")
+    private Integer pageSize;
+
+    /**
+     * Scan the Global Whitelist after an id, regular expressions are passed
+     * with a null client
+     *
+     * @return greatest id scanned, afterId if none
+     */
+    public int scanGlobal(int afterId, BiConsumer<String, List<String>> consumer) {
+        return scan(afterId, consumer, page -> jdbcTemplate.query(SELECT_GLOBAL, page, page.getId(), pageSize));
+    }
+
+    /**
+     * Scan the Client Whitelist of every client after an id
+     *
+     * @return greatest id scanned, afterId if none
+     */
+    public int scanClients(int afterId, BiConsumer<String, List<String>> consumer) {
+        return scan(afterId, consumer, page -> jdbcTemplate.query(SELECT_CLIENTS, page, page.getId(), pageSize));
+    }
+
+    /**
+     * Scan the Client Whitelist of a single client after an id
+     *
+     * @return greatest id scanned, afterId if none
+     */
+    public int scanClient(String client, int afterId, BiConsumer<String, List<String>> consumer) {
+        return scan(afterId, consumer, page ->
+            jdbcTemplate.query(SELECT_CLIENT, page, client, page.getId(), pageSize));
+    }
+
+    /**
+     * @return true if the Global Whitelist has a row with the id
+     */
+    public boolean existsGlobal(int id) {
+        return jdbcTemplate.queryForObject(EXISTS_GLOBAL, Integer.class, id) > 0;
+    }
+
+    /**
+     * @return true if the Client Whitelist has a row with the id
+     */
+    public boolean existsClient(int id) {
+        return jdbcTemplate.queryForObject(EXISTS_CLIENT, Integer.class, id) > 0;
+    }
+
+    private int scan(int afterId, BiConsumer<String, List<String>> consumer, PageQuery query) {
+        int last = afterId;
+        Page page;
+
+        do {
+            page = new Page(last);
+            query.run(page);
+            page.scopes.forEach(consumer);
+            last = page.getId();
+        } while (page.rows == pageSize);
+
+        return last;
+    }
+
+    @FunctionalInterface
+    private interface PageQuery {
+
+        void run(Page page);
+    }
+
+    /**
+     * Rows of a single page, grouped by client in order of id
+     */
+    private static final class Page implements RowCallbackHandler {
+
+        private final Map<String, List<String>> scopes = new LinkedHashMap<>();
+
+        private int id;
+
+        private int rows;
+
+        Page(int afterId) {
+            this.id = afterId;
+        }
+
+        /**
+         * @return greatest id of the page so far, or the id it starts after
+         */
+        int getId() {
+            return id;
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            id = resultSet.getInt(1);
+            rows++;
+            scopes.computeIfAbsent(resultSet.getString(2), c -> new ArrayList<>()).add(resultSet.getString(3));
+        }
+    }
+}
@@ -2,15 +2,16 @@ package com.lanahra.whitelist.entity;
 
 import javax.persistence.Entity;
 import javax.persistence.Table;
-import javax.persistence.UniqueConstraint;
 
 /**
  * GlobalExpression
- * Whitelist of global expressions, regular expressions must be unique.
+ * Whitelist of global expressions, regular expressions must be unique,
+ * enforced on the hash of the regular expression.
+ *
+ * Schema is managed by the migrations in db/migration.
  */
 @Entity
-@Table(name = "global_whitelist",
-uniqueConstraints = {@UniqueConstraint(columnNames = {"regex"})})
+@Table(name = "global_whitelist")
 public class GlobalExpression extends Expression {
 
     public GlobalExpression() {
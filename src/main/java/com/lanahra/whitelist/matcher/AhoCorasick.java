@@ -0,0 +1,186 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AhoCorasick
+ * Immutable Aho-Corasick automaton over the required literals of a list of
+ * regular expressions, a single pass over the input reports every expression
+ * whose literal occurs in it.
+ *
+ * @see LiteralExtractor
+ */
+final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    private static final int[] NONE = new int[0];
+
+    private final char[][] keys;
+
+    private final int[][] targets;
+
+    private final int[] fail;
+
+    private final int[] dictionary;
+
+    private final int[][] outputs;
+
+    /**
+     * Build the automaton, the literal of expression i is literals[i], null
+     * if the expression has no literal
+     */
+    AhoCorasick(String[] literals, int count) {
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<List<Integer>> matches = new ArrayList<>();
+
+        children.add(new TreeMap<>());
+        matches.add(new ArrayList<>());
+
+        for (int i = 0; i < count; i++) {
+            String literal = literals[i];
+
+            if (literal == null) {
+                continue;
+            }
+
+            int state = ROOT;
+
+            for (int j = 0; j < literal.length(); j++) {
+                Integer next = children.get(state).get(literal.charAt(j));
+
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    matches.add(new ArrayList<>());
+                    children.get(state).put(literal.charAt(j), next);
+                }
+
+                state = next;
+            }
+
+            matches.get(state).add(i);
+        }
+
+        int states = children.size();
+
+        keys = new char[states][];
+        targets = new int[states][];
+        outputs = new int[states][];
+        fail = new int[states];
+        dictionary = new int[states];
+
+        for (int state = 0; state < states; state++) {
+            TreeMap<Character, Integer> transitions = children.get(state);
+
+            keys[state] = new char[transitions.size()];
+            targets[state] = new int[transitions.size()];
+
+            int j = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                keys[state][j] = transition.getKey();
+                targets[state][j] = transition.getValue();
+                j++;
+            }
+
+            List<Integer> output = matches.get(state);
+            outputs[state] = output.isEmpty() ? NONE : output.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        link();
+    }
+
+    /**
+     * Set in hits every expression whose literal occurs in the text
+     */
+    void search(CharSequence text, BitSet hits) {
+        int state = ROOT;
+
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, text.charAt(i));
+
+            int output = outputs[state].length > 0 ? state : dictionary[state];
+
+            while (output != ROOT) {
+                for (int expression : outputs[output]) {
+                    hits.set(expression);
+                }
+
+                output = dictionary[output];
+            }
+        }
+    }
+
+    int states() {
+        return keys.length;
+    }
+
+    /**
+     * Breadth first computation of failure and dictionary suffix links
+     */
+    private void link() {
+        Deque<Integer> queue = new ArrayDeque<>();
+
+        for (int child : targets[ROOT]) {
+            fail[child] = ROOT;
+            dictionary[child] = ROOT;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+
+            for (int j = 0; j < keys[state].length; j++) {
+                int child = targets[state][j];
+                int suffix = step(fail[state], keys[state][j]);
+
+                fail[child] = suffix;
+                dictionary[child] = outputs[suffix].length > 0 ? suffix : dictionary[suffix];
+                queue.add(child);
+            }
+        }
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int next = transition(state, c);
+
+            if (next >= 0) {
+                return next;
+            }
+
+            if (state == ROOT) {
+                return ROOT;
+            }
+
+            state = fail[state];
+        }
+    }
+
+    private int transition(int state, char c) {
+        char[] stateKeys = keys[state];
+        int low = 0;
+        int high = stateKeys.length - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char key = stateKeys[middle];
+
+            if (key < c) {
+                low = middle + 1;
+            } else if (key > c) {
+                high = middle - 1;
+            } else {
+                return targets[state][middle];
+            }
+        }
+
+        return -1;
+    }
+}
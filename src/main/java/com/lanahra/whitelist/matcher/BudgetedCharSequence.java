@@ -0,0 +1,63 @@
+package com.lanahra.whitelist.matcher;
+
+/**
+ * BudgetedCharSequence
+ * Read only view of a String that counts every character read by a
+ * Matcher, once the budget is spent the match is aborted with Exhausted,
+ * so a regular expression that backtracks catastrophically costs at most
+ * budget steps instead of pinning the thread.
+ *
+ * Not thread safe, a new view must be used for each match.
+ */
+final class BudgetedCharSequence implements CharSequence {
+
+    private final String text;
+
+    private final long budget;
+
+    private long steps;
+
+    BudgetedCharSequence(String text, long budget) {
+        this.text = text;
+        this.budget = budget;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++steps > budget) {
+            throw Exhausted.INSTANCE;
+        }
+
+        return text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Thrown once the budget is spent, shared and without stack trace since
+     * it is only used to unwind the Matcher
+     */
+    static final class Exhausted extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        static final Exhausted INSTANCE = new Exhausted();
+
+        private Exhausted() {
+            super("Match step budget exhausted", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.lanahra.whitelist.matcher;
+
+/**
+ * ExpressionEngine
+ * Pluggable regular expression engine of a whitelist scope.
+ *
+ * @see JdkEngine
+ * @see LinearEngine
+ */
+public interface ExpressionEngine {
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if the regular
+     *     expression is not valid
+     */
+    ExpressionMatcher compile(String regex);
+
+    /**
+     * @return engine named jdk or linear
+     * @throws IllegalArgumentException if there is no such engine
+     */
+    static ExpressionEngine of(String name) {
+        switch (name) {
+            case JdkEngine.NAME:
+                return JdkEngine.INSTANCE;
+            case LinearEngine.NAME:
+                return LinearEngine.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown expression engine: " + name);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.lanahra.whitelist.matcher;
+
+/**
+ * ExpressionMatcher
+ * Regular expression compiled by an ExpressionEngine, verifying whole URLs.
+ *
+ * @see ExpressionEngine
+ */
+public interface ExpressionMatcher {
+
+    /**
+     * @return the regular expression
+     */
+    String regex();
+
+    /**
+     * @return name of the engine that compiled the expression
+     */
+    String engine();
+
+    /**
+     * Verify that the whole URL matches, backtracking engines read at most
+     * stepBudget characters, if positive, and abort the match otherwise
+     */
+    boolean matches(String url, long stepBudget);
+}
@@ -0,0 +1,387 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ExpressionSet
+ * Ordered set of compiled regular expressions of a single whitelist scope,
+ * either the global whitelist or the whitelist of one client.
+ *
+ * Expressions are only ever appended, writers are serialized while readers
+ * never lock, the size is published last so a reader always sees fully
+ * constructed entries.
+ *
+ * Expressions anchored on a literal host are indexed by that host, the
+ * required literal of every other expression is indexed in an Aho-Corasick
+ * automaton, so a host lookup and a single pass over the URL select the
+ * candidates that are then verified with the engine of the set. Expressions
+ * without a literal, like the ones using backreferences, are always
+ * verified. The index only covers a prefix of the expressions and is
+ * rebuilt once enough expressions are appended after it, the remaining ones
+ * are verified one by one.
+ *
+ * With a step budget, each verification reads at most budget characters of
+ * the URL, a verification that exceeds it is aborted and only that URL is
+ * considered as not matching the expression, the expression keeps matching
+ * every other URL. Expressions with nested quantifiers are flagged on insertion,
+ * unless compiled by the LinearEngine.
+ *
+ * @see AhoCorasick
+ * @see BudgetedCharSequence
+ * @see ExpressionEngine
+ * @see LiteralExtractor
+ * @see NestedQuantifiers
+ */
+public class ExpressionSet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpressionSet.class);
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int MIN_UNINDEXED = 32;
+
+    private final Set<String> regexes = ConcurrentHashMap.newKeySet();
+
+    private volatile Entry[] entries = new Entry[INITIAL_CAPACITY];
+
+    private volatile int size;
+
+    private volatile Index index = new Index(new Entry[0], 0);
+
+    private final LongAdder evaluations = new LongAdder();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    private volatile int flagged;
+
+    private volatile long stepBudget;
+
+    private volatile ExpressionEngine engine = JdkEngine.INSTANCE;
+
+    public ExpressionSet() {
+    }
+
+    /**
+     * @param stepBudget max characters read by a single verification, no
+     *     limit if not positive
+     */
+    public ExpressionSet(long stepBudget) {
+        this.stepBudget = stepBudget;
+    }
+
+    public ExpressionSet(ExpressionEngine engine, long stepBudget) {
+        this.engine = engine;
+        this.stepBudget = stepBudget;
+    }
+
+    /**
+     * Append a regular expression to the set, compiled by the engine of the
+     * set
+     *
+     * @return true if the regular expression was added
+     * @return false if it was already in the set
+     */
+    public synchronized boolean add(String regex) {
+        if (regexes.contains(regex)) {
+            return false;
+        }
+
+        append(new Entry(engine.compile(regex), exhausted));
+        regexes.add(regex);
+        reindexIfNeeded();
+        return true;
+    }
+
+    /**
+     * Append all the regular expressions to the set
+     *
+     * @return number of regular expressions actually added
+     */
+    public synchronized int addAll(Collection<String> regexes) {
+        int added = 0;
+
+        for (String regex : regexes) {
+            if (!this.regexes.contains(regex)) {
+                append(new Entry(engine.compile(regex), exhausted));
+                this.regexes.add(regex);
+                added++;
+            }
+        }
+
+        reindexIfNeeded();
+        return added;
+    }
+
+    /**
+     * Search for the first regular expression, in insertion order, that
+     * matches the whole URL
+     *
+     * @return matching regular expression if found
+     * @return null otherwise
+     */
+    public String match(String url) {
+        Index index = this.index;
+        int size = this.size;
+        Entry[] entries = this.entries;
+        long stepBudget = this.stepBudget;
+
+        BitSet candidates = index.candidates(url);
+        int evaluated = 0;
+
+        try {
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                evaluated++;
+
+                if (entries[i].matches(url, stepBudget)) {
+                    return entries[i].regex();
+                }
+            }
+
+            for (int i = index.count; i < size; i++) {
+                evaluated++;
+
+                if (entries[i].matches(url, stepBudget)) {
+                    return entries[i].regex();
+                }
+            }
+
+            return null;
+        } finally {
+            evaluations.add(evaluated);
+        }
+    }
+
+    /**
+     * Append to candidates every entry that may match the URL, in insertion
+     * order, to be verified by the caller
+     */
+    void candidates(String url, List<Entry> candidates) {
+        Index index = this.index;
+        int size = this.size;
+        Entry[] entries = this.entries;
+
+        BitSet indexed = index.candidates(url);
+
+        for (int i = indexed.nextSetBit(0); i >= 0; i = indexed.nextSetBit(i + 1)) {
+            candidates.add(entries[i]);
+        }
+
+        for (int i = index.count; i < size; i++) {
+            candidates.add(entries[i]);
+        }
+    }
+
+    /**
+     * @return every regular expression of the set, in insertion order
+     */
+    public List<String> regexes() {
+        int size = this.size;
+        Entry[] entries = this.entries;
+        List<String> regexes = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            regexes.add(entries[i].regex());
+        }
+
+        return regexes;
+    }
+
+    public boolean contains(String regex) {
+        return regexes.contains(regex);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long stepBudget() {
+        return stepBudget;
+    }
+
+    /**
+     * Set the step budget of every verification from now on
+     */
+    public void setStepBudget(long stepBudget) {
+        this.stepBudget = stepBudget;
+    }
+
+    public ExpressionEngine engine() {
+        return engine;
+    }
+
+    /**
+     * Set the engine compiling every expression added from now on
+     */
+    public void setEngine(ExpressionEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return number of verifications aborted for exceeding the budget
+     */
+    public long exhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * @return number of expressions flagged with nested quantifiers, among
+     *     the ones compiled by a backtracking engine
+     */
+    public int flagged() {
+        return flagged;
+    }
+
+    /**
+     * @return number of regular expressions evaluated by match so far
+     */
+    public long evaluations() {
+        return evaluations.sum();
+    }
+
+    private void append(Entry entry) {
+        Entry[] entries = this.entries;
+
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+            this.entries = entries;
+        }
+
+        entries[size] = entry;
+        size = size + 1;
+
+        if (entry.nested && !LinearEngine.NAME.equals(entry.matcher.engine())) {
+            flagged = flagged + 1;
+            LOGGER.warn("Nested quantifiers in {}", entry.regex());
+        }
+    }
+
+    private void reindexIfNeeded() {
+        int indexed = index.count;
+
+        if (size - indexed > Math.max(MIN_UNINDEXED, indexed / 8)) {
+            index = new Index(entries, size);
+        }
+    }
+
+    /**
+     * Compiled expression with its required host or literal, if any
+     */
+    static final class Entry {
+
+        final ExpressionMatcher matcher;
+
+        final String host;
+
+        final String literal;
+
+        final boolean nested;
+
+        private final LongAdder exhausted;
+
+        Entry(Pattern pattern) {
+            this(JdkEngine.matcher(pattern), new LongAdder());
+        }
+
+        Entry(ExpressionMatcher matcher, LongAdder exhausted) {
+            this.matcher = matcher;
+            this.host = LiteralExtractor.requiredHost(matcher.regex());
+            this.literal = host == null ? LiteralExtractor.requiredLiteral(matcher.regex()) : null;
+            this.nested = NestedQuantifiers.detect(matcher.regex());
+            this.exhausted = exhausted;
+        }
+
+        boolean matches(String url) {
+            return matches(url, 0);
+        }
+
+        /**
+         * Verify the whole URL reading at most stepBudget characters, if
+         * positive, once exceeded only this URL is considered as not
+         * matching
+         */
+        boolean matches(String url, long stepBudget) {
+            try {
+                return matcher.matches(url, stepBudget);
+            } catch (BudgetedCharSequence.Exhausted e) {
+                exhausted.increment();
+                LOGGER.debug("Verification of {} exceeded {} steps", regex(), stepBudget);
+                return false;
+            }
+        }
+
+        String regex() {
+            return matcher.regex();
+        }
+    }
+
+    /**
+     * Immutable index over the first count entries
+     */
+    private static final class Index {
+
+        final int count;
+
+        final Map<String, int[]> hosts;
+
+        final AhoCorasick automaton;
+
+        final BitSet unfiltered;
+
+        Index(Entry[] entries, int count) {
+            Map<String, BitSet> byHost = new HashMap<>();
+            Map<String, int[]> hosts = new HashMap<>();
+            String[] literals = new String[count];
+            BitSet unfiltered = new BitSet(count);
+
+            for (int i = 0; i < count; i++) {
+                Entry entry = entries[i];
+
+                if (entry.host != null) {
+                    byHost.computeIfAbsent(entry.host, h -> new BitSet()).set(i);
+                } else if (entry.literal != null) {
+                    literals[i] = entry.literal;
+                } else {
+                    unfiltered.set(i);
+                }
+            }
+
+            byHost.forEach((host, indexes) -> hosts.put(host, indexes.stream().toArray()));
+
+            this.count = count;
+            this.hosts = hosts;
+            this.automaton = new AhoCorasick(literals, count);
+            this.unfiltered = unfiltered;
+        }
+
+        /**
+         * @return entries that may match the URL, in insertion order
+         */
+        BitSet candidates(String url) {
+            BitSet candidates = (BitSet) unfiltered.clone();
+            automaton.search(url, candidates);
+
+            String host = LiteralExtractor.host(url);
+            int[] indexes = host == null ? null : hosts.get(host);
+
+            if (indexes != null) {
+                for (int i : indexes) {
+                    candidates.set(i);
+                }
+            }
+
+            return candidates;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.regex.Pattern;
+
+/**
+ * JdkEngine
+ * Backtracking java.util.regex engine, supports the whole Pattern syntax,
+ * the worst case cost of a match is only bounded by the step budget.
+ */
+public final class JdkEngine implements ExpressionEngine {
+
+    public static final String NAME = "jdk";
+
+    public static final JdkEngine INSTANCE = new JdkEngine();
+
+    private JdkEngine() {
+    }
+
+    @Override
+    public ExpressionMatcher compile(String regex) {
+        return matcher(PatternCache.getInstance().compile(regex));
+    }
+
+    static ExpressionMatcher matcher(Pattern pattern) {
+        return new JdkMatcher(pattern);
+    }
+
+    private static final class JdkMatcher implements ExpressionMatcher {
+
+        private final Pattern pattern;
+
+        JdkMatcher(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String regex() {
+            return pattern.pattern();
+        }
+
+        @Override
+        public String engine() {
+            return NAME;
+        }
+
+        @Override
+        public boolean matches(String url, long stepBudget) {
+            if (stepBudget <= 0) {
+                return pattern.matcher(url).matches();
+            }
+
+            return pattern.matcher(new BudgetedCharSequence(url, stepBudget)).matches();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.lanahra.whitelist.matcher;
+
+import com.google.re2j.Pattern;
+import com.google.re2j.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LinearEngine
+ * RE2 automaton engine, a match runs in time linear to the length of the
+ * URL whatever the expression, so it needs no step budget.
+ *
+ * An expression is only compiled by RE2 if every construct it uses means
+ * the same in both engines, anything else falls back to the JdkEngine, so
+ * the engine never changes what an expression matches:
+ *     features that need backtracking, like backreferences or lookarounds
+ *     inline flags and named groups, (?i) folds Unicode in RE2 only
+ *     nested classes, unions, intersections and POSIX bracket classes
+ *     escapes of another meaning, like \s, \b, \v, \h, \p or octals
+ *     $ anywhere but at the end of an alternative
+ *     braces that are not a well formed repetition
+ * The JDK dot excludes every line terminator while the RE2 one only
+ * excludes \n, so the dot is rewritten into the class of the JDK one.
+ */
+public final class LinearEngine implements ExpressionEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinearEngine.class);
+
+    public static final String NAME = "linear";
+
+    public static final LinearEngine INSTANCE = new LinearEngine();
+
+    private static final String JDK_DOT = "[^\\n\\r\\x{85}\\x{2028}\\x{2029}]";
+
+    private static final String ESCAPES = "dDwWtnrfaxAz";
+
+    private static final String CLASS_ESCAPES = "dDwWtnrfax";
+
+    private LinearEngine() {
+    }
+
+    @Override
+    public ExpressionMatcher compile(String regex) {
+        String translated = translate(regex);
+
+        if (translated == null) {
+            return fallback(regex);
+        }
+
+        try {
+            return new LinearMatcher(regex, Pattern.compile(translated));
+        } catch (PatternSyntaxException e) {
+            return fallback(regex);
+        }
+    }
+
+    private static ExpressionMatcher fallback(String regex) {
+        LOGGER.debug("Fall back to {} engine for {}", JdkEngine.NAME, regex);
+        return JdkEngine.INSTANCE.compile(regex);
+    }
+
+    /**
+     * @return expression in RE2 syntax with the same meaning as in the JDK
+     * @return null if it uses any construct whose meaning may differ
+     */
+    static String translate(String regex) {
+        StringBuilder translated = new StringBuilder(regex.length() + 16);
+        int length = regex.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = regex.charAt(i);
+            int end;
+
+            switch (c) {
+                case '\\':
+                    end = escape(regex, i, false);
+                    break;
+                case '[':
+                    end = characterClass(regex, i);
+                    break;
+                case '{':
+                    end = repetition(regex, i);
+                    break;
+                case '(':
+                    end = regex.startsWith("(?", i) && !regex.startsWith("(?:", i) ? -1 : i + 1;
+                    break;
+                case '$':
+                    end = i + 1 == length || regex.charAt(i + 1) == '|' ? i + 1 : -1;
+                    break;
+                case '.':
+                    translated.append(JDK_DOT);
+                    i++;
+                    continue;
+                default:
+                    end = i + 1;
+                    break;
+            }
+
+            if (end < 0) {
+                return null;
+            }
+
+            translated.append(regex, i, end);
+            i = end;
+        }
+
+        return translated.toString();
+    }
+
+    /**
+     * @return index right after the escape at index start, -1 if its
+     *     meaning may differ
+     */
+    private static int escape(String regex, int start, boolean inClass) {
+        if (start + 1 >= regex.length()) {
+            return -1;
+        }
+
+        char escaped = regex.charAt(start + 1);
+
+        if (escaped == 'Q' && !inClass) {
+            int end = regex.indexOf("\\E", start + 2);
+            return end < 0 ? regex.length() : end + 2;
+        }
+
+        if (escaped == 'x' && regex.startsWith("{", start + 2)) {
+            int end = regex.indexOf('}', start + 2);
+            return end < 0 ? -1 : end + 1;
+        }
+
+        String letters = inClass ? CLASS_ESCAPES : ESCAPES;
+
+        if (Character.isLetterOrDigit(escaped) && letters.indexOf(escaped) < 0) {
+            return -1;
+        }
+
+        return start + 2;
+    }
+
+    /**
+     * @return index right after the class opened at index open, -1 if it is
+     *     not a plain class of ranges, characters and simple escapes
+     */
+    private static int characterClass(String regex, int open) {
+        int length = regex.length();
+        int i = open + 1;
+
+        if (i < length && regex.charAt(i) == '^') {
+            i++;
+        }
+
+        // A leading ']' is a member in the JDK and closes the class in RE2
+        if (i < length && regex.charAt(i) == ']') {
+            return -1;
+        }
+
+        while (i < length) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i = escape(regex, i, true);
+
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '[' || (c == '&' && i + 1 < length && regex.charAt(i + 1) == '&')) {
+                return -1;
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return index right after the {n}, {n,} or {n,m} repetition at index
+     *     open, -1 if malformed
+     */
+    private static int repetition(String regex, int open) {
+        int length = regex.length();
+        int i = open + 1;
+        int digits = 0;
+
+        while (i < length && Character.isDigit(regex.charAt(i))) {
+            i++;
+            digits++;
+        }
+
+        if (digits == 0) {
+            return -1;
+        }
+
+        if (i < length && regex.charAt(i) == ',') {
+            i++;
+
+            while (i < length && Character.isDigit(regex.charAt(i))) {
+                i++;
+            }
+        }
+
+        return i < length && regex.charAt(i) == '}' ? i + 1 : -1;
+    }
+
+    private static final class LinearMatcher implements ExpressionMatcher {
+
+        private final String regex;
+
+        private final Pattern pattern;
+
+        LinearMatcher(String regex, Pattern pattern) {
+            this.regex = regex;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String regex() {
+            return regex;
+        }
+
+        @Override
+        public String engine() {
+            return NAME;
+        }
+
+        @Override
+        public boolean matches(String url, long stepBudget) {
+            return pattern.matcher(url).matches();
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LiteralExtractor
+ * Extract from a regular expression the longest literal String that every
+ * matching input must contain, only the top level of the expression is
+ * considered, groups, classes and any construct that is not understood are
+ * treated as unknown input, so the extracted literal is always safe to use
+ * as a prefilter.
+ *
+ * Expressions anchored on a scheme and a literal host, like
+ * https?://example\.com/.*, can only match URLs with exactly that host, so
+ * the host itself is extracted to be used as a key.
+ */
+public final class LiteralExtractor {
+
+    public static final int MIN_LITERAL_LENGTH = 2;
+
+    private static final Pattern SCHEME = Pattern.compile(
+        "\\^?(?:[a-z]+s\\?|[a-z]+|\\((?:\\?:)?[a-z]+s?\\??(?:\\|[a-z]+s?\\??)*\\)\\??)://");
+
+    private static final String HOST_DELIMITERS = "/:?#";
+
+    private LiteralExtractor() {
+    }
+
+    /**
+     * @return longest required literal of the regular expression
+     * @return null if there is none at least MIN_LITERAL_LENGTH long
+     */
+    public static String requiredLiteral(String regex) {
+        StringBuilder run = new StringBuilder();
+        String best = "";
+        boolean literal = false;
+        int length = regex.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = regex.charAt(i);
+
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= length) {
+                        return null;
+                    }
+
+                    char escaped = regex.charAt(i + 1);
+
+                    if (escaped == 'Q') {
+                        int end = regex.indexOf("\\E", i + 2);
+                        String quoted = end < 0 ? regex.substring(i + 2) : regex.substring(i + 2, end);
+                        run.append(quoted);
+                        literal = !quoted.isEmpty();
+                        i = end < 0 ? length : end + 2;
+                    } else if (!Character.isLetterOrDigit(escaped)) {
+                        run.append(escaped);
+                        literal = true;
+                        i += 2;
+                    } else if (escaped == 't' || escaped == 'n' || escaped == 'r'
+                            || escaped == 'f' || escaped == 'a' || escaped == 'e') {
+                        run.append(control(escaped));
+                        literal = true;
+                        i += 2;
+                    } else if (isSimpleEscape(escaped)) {
+                        best = longest(best, run);
+                        literal = false;
+                        i += 2;
+                    } else {
+                        // Backreferences, code points and properties
+                        return null;
+                    }
+                    break;
+                case '[':
+                    i = skipClass(regex, i);
+
+                    if (i < 0) {
+                        return null;
+                    }
+
+                    best = longest(best, run);
+                    literal = false;
+                    break;
+                case '(':
+                    if (hasFlags(regex, i)) {
+                        return null;
+                    }
+
+                    i = skipGroup(regex, i);
+
+                    if (i < 0) {
+                        return null;
+                    }
+
+                    best = longest(best, run);
+                    literal = false;
+                    break;
+                case '|':
+                case ')':
+                    return null;
+                case '.':
+                case '^':
+                case '$':
+                    best = longest(best, run);
+                    literal = false;
+                    i++;
+                    break;
+                case '*':
+                case '?':
+                case '+':
+                case '{':
+                    int minimum = c == '+' ? 1 : 0;
+
+                    if (c == '{') {
+                        int end = regex.indexOf('}', i);
+
+                        if (end < 0) {
+                            return null;
+                        }
+
+                        minimum = minimum(regex.substring(i + 1, end));
+
+                        if (minimum < 0) {
+                            return null;
+                        }
+
+                        i = end + 1;
+                    } else {
+                        i++;
+                    }
+
+                    if (i < length && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+                        i++;
+                    }
+
+                    if (literal && minimum == 0) {
+                        removeLast(run);
+                    }
+
+                    best = longest(best, run);
+                    literal = false;
+                    break;
+                default:
+                    run.append(c);
+                    literal = true;
+                    i++;
+                    break;
+            }
+        }
+
+        best = longest(best, run);
+
+        return best.length() >= MIN_LITERAL_LENGTH ? best : null;
+    }
+
+    /**
+     * @return literal host the regular expression is anchored on
+     * @return null if the expression is not anchored on a literal host, or
+     *     if it has a top level alternation, whose other branches may match
+     *     any other host
+     */
+    public static String requiredHost(String regex) {
+        Matcher scheme = SCHEME.matcher(regex);
+
+        if (!scheme.lookingAt() || hasTopLevelAlternation(regex)) {
+            return null;
+        }
+
+        StringBuilder host = new StringBuilder();
+        int length = regex.length();
+        int i = scheme.end();
+
+        while (i < length) {
+            char c = regex.charAt(i);
+
+            if (c == '\\' && i + 1 < length && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                if (HOST_DELIMITERS.indexOf(regex.charAt(i + 1)) >= 0) {
+                    break;
+                }
+
+                host.append(regex.charAt(i + 1));
+                i += 2;
+            } else if (c != '\\' && ".[]()*+?{}|^$".indexOf(c) < 0 && HOST_DELIMITERS.indexOf(c) < 0) {
+                host.append(c);
+                i++;
+            } else {
+                break;
+            }
+        }
+
+        if (host.length() == 0) {
+            return null;
+        }
+
+        if (i == length || (i == length - 1 && regex.charAt(i) == '$')) {
+            return host.toString();
+        }
+
+        int delimiter = i;
+
+        if (regex.charAt(i) == '\\' && i + 1 < length) {
+            delimiter = i + 1;
+        }
+
+        char c = regex.charAt(delimiter);
+
+        if (c != '/' && c != ':') {
+            return null;
+        }
+
+        if (delimiter + 1 < length && "*?+{".indexOf(regex.charAt(delimiter + 1)) >= 0) {
+            return null;
+        }
+
+        return host.toString();
+    }
+
+    /**
+     * @return host of the URL, between the scheme and the path, port, query
+     *     or fragment
+     * @return null if the URL has no scheme
+     */
+    public static String host(String url) {
+        int start = url.indexOf("://");
+
+        if (start < 0) {
+            return null;
+        }
+
+        start += 3;
+        int end = start;
+
+        while (end < url.length() && HOST_DELIMITERS.indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+
+        return url.substring(start, end);
+    }
+
+    private static String longest(String best, StringBuilder run) {
+        String candidate = best;
+
+        if (run.length() > best.length()) {
+            candidate = run.toString();
+        }
+
+        run.setLength(0);
+        return candidate;
+    }
+
+    private static void removeLast(StringBuilder run) {
+        int last = run.length() - 1;
+
+        if (last > 0 && Character.isLowSurrogate(run.charAt(last))
+                && Character.isHighSurrogate(run.charAt(last - 1))) {
+            run.setLength(last - 1);
+        } else if (last >= 0) {
+            run.setLength(last);
+        }
+    }
+
+    private static char control(char escaped) {
+        switch (escaped) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            default:
+                return '\u001B';
+        }
+    }
+
+    /**
+     * Escapes of a single letter that stand for a class or a boundary
+     */
+    private static boolean isSimpleEscape(char escaped) {
+        return "dDwWsSbBAzZGhHvVRX".indexOf(escaped) >= 0;
+    }
+
+    /**
+     * @return minimum of a {n}, {n,} or {n,m} quantifier, -1 if malformed
+     */
+    private static int minimum(String quantifier) {
+        int comma = quantifier.indexOf(',');
+        String minimum = comma < 0 ? quantifier : quantifier.substring(0, comma);
+
+        try {
+            return Integer.parseInt(minimum.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Inline flags, like (?i) or (?i:...), may change how literals match
+     */
+    private static boolean hasFlags(String regex, int open) {
+        if (open + 2 >= regex.length() || regex.charAt(open + 1) != '?') {
+            return false;
+        }
+
+        return ":=!><".indexOf(regex.charAt(open + 2)) < 0;
+    }
+
+    /**
+     * @return true if the expression has a '|' outside of any group or
+     *     class, or if it can not be parsed
+     */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int length = regex.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? length : end + 2;
+                } else {
+                    i += 2;
+                }
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                i = skipGroup(regex, i);
+            } else if (c == '|' || c == ')') {
+                return true;
+            } else {
+                i++;
+            }
+
+            if (i < 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return index right after the class opened at index open, -1 if the
+     *     class is not closed
+     */
+    private static int skipClass(String regex, int open) {
+        int length = regex.length();
+        int depth = 0;
+        int i = open;
+
+        while (i < length) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+
+                    if (end < 0) {
+                        return -1;
+                    }
+
+                    i = end + 2;
+                } else {
+                    i += 2;
+                }
+                continue;
+            }
+
+            if (c == '[') {
+                depth++;
+                i++;
+
+                if (i < length && regex.charAt(i) == '^') {
+                    i++;
+                }
+
+                // A leading ']' is a literal member of the class
+                if (i < length && regex.charAt(i) == ']') {
+                    i++;
+                }
+                continue;
+            }
+
+            if (c == ']') {
+                depth--;
+
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return index right after the group opened at index open, -1 if the
+     *     group is not closed
+     */
+    private static int skipGroup(String regex, int open) {
+        int length = regex.length();
+        int depth = 0;
+        int i = open;
+
+        while (i < length) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+
+                    if (end < 0) {
+                        return -1;
+                    }
+
+                    i = end + 2;
+                } else {
+                    i += 2;
+                }
+                continue;
+            }
+
+            if (c == '[') {
+                i = skipClass(regex, i);
+
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+
+            i++;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,238 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * MatchCache
+ * Bounded least recently used cache of validation results, keyed by client
+ * and URL, results expire once they are older than the time to live.
+ *
+ * The cache is split in up to 16 segments by the hash of the key, each one
+ * a least recently used map of its share of the max size with a lock of its
+ * own, so concurrent lookups rarely contend. Eviction is least recently
+ * used within a segment, only approximately across the cache.
+ *
+ * Every result is stamped with the generation of the global whitelist and
+ * of the client whitelist when its matching started. Adding expressions to
+ * a whitelist bumps its generation, so every result computed before is
+ * stale and is never returned again, without walking the cache. Stale
+ * results are dropped lazily, once looked up or evicted.
+ */
+public class MatchCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final Segment[] segments;
+
+    private final long ttl;
+
+    private final LongSupplier clock;
+
+    private final AtomicLong globalGeneration = new AtomicLong();
+
+    private final ConcurrentMap<String, AtomicLong> clientGenerations = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public MatchCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, System::nanoTime);
+    }
+
+    MatchCache(int maxSize, long ttlMillis, LongSupplier clock) {
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.clock = clock;
+
+        int count = 1;
+
+        while (count < MAX_SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+            count *= 2;
+        }
+
+        this.segments = new Segment[count];
+
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((maxSize + count - 1) / count);
+        }
+    }
+
+    /**
+     * Generations of the whitelists of a client, must be taken before the
+     * whitelists are read for matching
+     */
+    public Stamp stamp(String client) {
+        AtomicLong clientGeneration = client == null ? null : clientGenerations.get(client);
+        return new Stamp(globalGeneration.get(), clientGeneration == null ? 0 : clientGeneration.get());
+    }
+
+    /**
+     * @return cached Result if fresh
+     * @return null otherwise
+     */
+    public Result get(String client, String url) {
+        Stamp current = stamp(client);
+        List<String> key = Arrays.asList(client, url);
+        long now = clock.getAsLong();
+
+        Segment segment = segment(key);
+        Result result;
+
+        synchronized (segment) {
+            result = segment.get(key);
+
+            if (result != null && (!result.stamp.equals(current) || now - result.created >= ttl)) {
+                segment.remove(key);
+                result = null;
+            }
+        }
+
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return result;
+    }
+
+    /**
+     * Cache the regular expression matching the URL, or null if none
+     * matches, computed from the whitelists as of the stamp
+     */
+    public void put(String client, String url, Stamp stamp, String regex) {
+        if (!stamp.equals(stamp(client))) {
+            return;
+        }
+
+        Result result = new Result(regex, stamp, clock.getAsLong());
+        List<String> key = Arrays.asList(client, url);
+        Segment segment = segment(key);
+
+        synchronized (segment) {
+            segment.put(key, result);
+        }
+    }
+
+    /**
+     * Invalidate every result of the global whitelist, if client is null,
+     * or every result of the client otherwise
+     */
+    public void invalidate(String client) {
+        if (client == null) {
+            globalGeneration.incrementAndGet();
+        } else {
+            clientGenerations.computeIfAbsent(client, c -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    private Segment segment(List<String> key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Least recently used map of a share of the results, guarded by its own
+     * monitor
+     */
+    private static final class Segment extends LinkedHashMap<List<String>, Result> {
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, Result> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /**
+     * Generations of the global whitelist and of a client whitelist
+     */
+    public static final class Stamp {
+
+        private final long global;
+
+        private final long client;
+
+        Stamp(long global, long client) {
+            this.global = global;
+            this.client = client;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+
+            Stamp other = (Stamp) o;
+            return global == other.global && client == other.client;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(global) * 31 + Long.hashCode(client);
+        }
+    }
+
+    /**
+     * Cached validation result
+     */
+    public static final class Result {
+
+        private final String regex;
+
+        private final Stamp stamp;
+
+        private final long created;
+
+        Result(String regex, Stamp stamp, long created) {
+            this.regex = regex;
+            this.stamp = stamp;
+            this.created = created;
+        }
+
+        /**
+         * @return matching regular expression, null if none matches
+         */
+        public String getRegex() {
+            return regex;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * NestedQuantifiers
+ * Detect regular expressions with a repeated group whose content is itself
+ * repeated, like (a+)+ or (\w+\.)*, the shape behind most catastrophic
+ * backtracking in java.util.regex.
+ *
+ * The detection is syntactic, so it flags harmless expressions where the
+ * repetitions cannot overlap, and misses overlapping alternations like
+ * (a|aa)+, the step budget covers those at match time.
+ */
+public final class NestedQuantifiers {
+
+    private NestedQuantifiers() {
+    }
+
+    /**
+     * @return true if a repeated group contains a repeated element
+     */
+    public static boolean detect(String regex) {
+        Deque<Boolean> groups = new ArrayDeque<>();
+        boolean repeated = false;
+        int i = 0;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? regex.length() : end + 2;
+                } else {
+                    i += 2;
+                }
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                groups.push(repeated);
+                repeated = false;
+                i++;
+            } else if (c == ')') {
+                boolean inner = repeated;
+                repeated = groups.isEmpty() ? false : groups.pop();
+                i++;
+
+                int end = repetition(regex, i);
+
+                if (end > i) {
+                    if (inner) {
+                        return true;
+                    }
+
+                    repeated = true;
+                    i = end;
+                } else {
+                    repeated |= inner;
+                }
+            } else {
+                int end = repetition(regex, i);
+
+                if (end > i) {
+                    repeated = true;
+                    i = end;
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return index past the quantifier at i if it allows more than one
+     *     repetition, i otherwise
+     */
+    private static int repetition(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+
+        char c = regex.charAt(i);
+
+        if (c == '*' || c == '+') {
+            return i + 1;
+        }
+
+        if (c != '{') {
+            return i;
+        }
+
+        int end = regex.indexOf('}', i);
+
+        if (end < 0) {
+            return i;
+        }
+
+        String[] bounds = regex.substring(i + 1, end).split(",", -1);
+
+        try {
+            if (bounds.length == 1) {
+                return Integer.parseInt(bounds[0].trim()) > 1 ? end + 1 : i;
+            }
+
+            if (bounds[1].trim().isEmpty() || Integer.parseInt(bounds[1].trim()) > 1) {
+                return end + 1;
+            }
+        } catch (NumberFormatException e) {
+            return i;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return index past the character class starting at i
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+
+            if (c == '[') {
+                depth++;
+
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']') {
+                depth--;
+
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+
+            i++;
+        }
+
+        return i;
+    }
+}
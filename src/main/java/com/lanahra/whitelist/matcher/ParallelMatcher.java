@@ -0,0 +1,162 @@
+package com.lanahra.whitelist.matcher;
+
+import com.lanahra.whitelist.matcher.ExpressionSet.Entry;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ParallelMatcher
+ * Verify the candidate expressions of a validation concurrently, candidates
+ * are split into one chunk per thread of the pool, the first matching
+ * expression in candidate order wins, the result is completed as soon as it
+ * is known and every chunk past it stops as soon as the match is found.
+ *
+ * Below the threshold the candidates are verified in the calling thread,
+ * since splitting a few expressions costs more than verifying them.
+ *
+ * Chunks run on a ForkJoinPool, or on any Executor along with the number of
+ * chunks it runs at once, such as virtual threads bounded by a semaphore.
+ */
+public class ParallelMatcher {
+
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final int threshold;
+
+    private final LongAdder evaluations = new LongAdder();
+
+    public ParallelMatcher(ForkJoinPool pool, int threshold) {
+        this(pool, pool.getParallelism(), threshold);
+    }
+
+    public ParallelMatcher(Executor executor, int parallelism, int threshold) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return CompletableFuture with the first matching regular expression
+     * @return CompletableFuture with null if none matches
+     */
+    CompletableFuture<String> match(List<Entry> candidates, String url) {
+        return match(candidates, url, 0);
+    }
+
+    /**
+     * @return CompletableFuture with the first matching regular expression,
+     *     verifying each candidate with at most stepBudget steps
+     * @return CompletableFuture with null if none matches
+     */
+    CompletableFuture<String> match(List<Entry> candidates, String url, long stepBudget) {
+        int size = candidates.size();
+
+        if (size < threshold) {
+            Search search = new Search(candidates, url, Math.max(size, 1), stepBudget, evaluations);
+            search.scan(0);
+            return search.result;
+        }
+
+        int chunks = Math.min(parallelism, size);
+        Search search = new Search(candidates, url, (size + chunks - 1) / chunks, stepBudget, evaluations);
+
+        for (int chunk = 0; chunk < search.chunks(); chunk++) {
+            int current = chunk;
+            executor.execute(() -> search.scan(current));
+        }
+
+        return search.result;
+    }
+
+    /**
+     * @return number of regular expressions evaluated so far
+     */
+    public long evaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Shared state of the chunks of a single validation
+     */
+    private static final class Search {
+
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        final AtomicInteger first = new AtomicInteger(Integer.MAX_VALUE);
+
+        final List<Entry> candidates;
+
+        final String url;
+
+        final int chunkSize;
+
+        final boolean[] done;
+
+        final long stepBudget;
+
+        final LongAdder evaluations;
+
+        Search(List<Entry> candidates, String url, int chunkSize, long stepBudget, LongAdder evaluations) {
+            this.candidates = candidates;
+            this.url = url;
+            this.chunkSize = chunkSize;
+            this.stepBudget = stepBudget;
+            this.evaluations = evaluations;
+            this.done = new boolean[Math.max(1, (candidates.size() + chunkSize - 1) / chunkSize)];
+        }
+
+        int chunks() {
+            return done.length;
+        }
+
+        /**
+         * Verify the candidates of a chunk, stopping once any candidate
+         * before the current one is known to match
+         */
+        void scan(int chunk) {
+            int end = Math.min(candidates.size(), (chunk + 1) * chunkSize);
+            int evaluated = 0;
+
+            try {
+                for (int i = chunk * chunkSize; i < end && i < first.get(); i++) {
+                    evaluated++;
+
+                    if (candidates.get(i).matches(url, stepBudget)) {
+                        first.accumulateAndGet(i, Math::min);
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                evaluations.add(evaluated);
+                finish(chunk);
+            }
+        }
+
+        /**
+         * Complete the result as soon as every chunk up to the first match
+         * is done, or every chunk is done if there is no match
+         */
+        synchronized void finish(int chunk) {
+            done[chunk] = true;
+
+            int match = first.get();
+            int last = match == Integer.MAX_VALUE ? done.length - 1 : match / chunkSize;
+
+            for (int i = 0; i <= last; i++) {
+                if (!done[i]) {
+                    return;
+                }
+            }
+
+            result.complete(match == Integer.MAX_VALUE ? null : candidates.get(match).regex());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.lanahra.whitelist.matcher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * PatternCache
+ * Bounded least recently used cache of compiled regular expressions, keyed
+ * by the regular expression String, so the same expression is compiled once
+ * by the validator, the insertion and the Whitelist.
+ *
+ * A single instance is shared by the whole process, since validators are
+ * not necessarily created by Spring.
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_SIZE = 10000;
+
+    private static final PatternCache INSTANCE = new PatternCache(DEFAULT_SIZE);
+
+    private final Map<String, Pattern> patterns;
+
+    private long hits;
+
+    private long misses;
+
+    public PatternCache(int maxSize) {
+        patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static PatternCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retrieve the compiled regular expression, compiling it on a miss,
+     * invalid regular expressions are never cached
+     *
+     * @throws PatternSyntaxException if the regular expression is not valid
+     */
+    public Pattern compile(String regex) {
+        synchronized (this) {
+            Pattern pattern = patterns.get(regex);
+
+            if (pattern != null) {
+                hits++;
+                return pattern;
+            }
+
+            misses++;
+        }
+
+        Pattern pattern = Pattern.compile(regex);
+
+        synchronized (this) {
+            Pattern previous = patterns.putIfAbsent(regex, pattern);
+            return previous != null ? previous : pattern;
+        }
+    }
+
+    public synchronized int size() {
+        return patterns.size();
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+}
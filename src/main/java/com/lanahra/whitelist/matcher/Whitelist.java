@@ -0,0 +1,317 @@
+package com.lanahra.whitelist.matcher;
+
+import com.lanahra.whitelist.entity.Expression;
+import com.lanahra.whitelist.matcher.ExpressionSet.Entry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Whitelist
+ * Resident copy of the global whitelist and of every client whitelist, with
+ * all the regular expressions already compiled, so validation never has to
+ * go through the repositories.
+ *
+ * If a ParallelMatcher is configured, the candidates of both whitelists are
+ * verified concurrently, otherwise they are verified in the calling thread.
+ *
+ * If a MatchCache is configured, repeated validations are answered from the
+ * cache, adding expressions to a whitelist invalidates its cached results.
+ *
+ * Every verification is bounded by the step budget, $MATCH_STEP_BUDGET
+ * characters read, a verification exceeding it only fails for that URL.
+ * Characters read by the same expression vary between JDK versions, the
+ * default leaves several times the reads of rules with a few unanchored
+ * wildcards, like .*a.*b.*c.*d.* on URLs of over a hundred characters, on
+ * JDK 8 to 21, while a catastrophic backtrack is still cut off within a
+ * fraction of a second.
+ *
+ * Each scope has its own engine, $GLOBAL_MATCH_ENGINE for the global
+ * whitelist and $CLIENT_MATCH_ENGINE for client whitelists, either jdk or
+ * linear, by default expressions supplied by clients are matched in linear
+ * time.
+ *
+ * @see ExpressionEngine
+ * @see ExpressionSet
+ * @see MatchCache
+ * @see ParallelMatcher
+ */
+@Component
+public class Whitelist {
+
+    public static final long DEFAULT_STEP_BUDGET = 10000000;
+
+    private volatile long stepBudget = DEFAULT_STEP_BUDGET;
+
+    private volatile ExpressionEngine clientEngine = LinearEngine.INSTANCE;
+
+    private final ExpressionSet global = new ExpressionSet(JdkEngine.INSTANCE, stepBudget);
+
+    private final ConcurrentMap<String, ExpressionSet> clients = new ConcurrentHashMap<>();
+
+    @Autowired(required = false)
+    private ParallelMatcher parallelMatcher;
+
+    @Autowired(required = false)
+    private MatchCache matchCache;
+
+    /**
+     * Set the step budget of every verification, no limit if not positive
+     */
+    @Value("${MATCH_STEP_BUDGET:" + DEFAULT_STEP_BUDGET + "}")
+    public void setStepBudget(long stepBudget) {
+        this.stepBudget = stepBudget;
+        global.setStepBudget(stepBudget);
+        clients.values().forEach(expressions -> expressions.setStepBudget(stepBudget));
+    }
+
+    /**
+     * Set the engine of the global whitelist, for expressions added from
+     * now on
+     */
+    @Value("${GLOBAL_MATCH_ENGINE:" + JdkEngine.NAME + "}")
+    public void setGlobalEngine(String engine) {
+        global.setEngine(ExpressionEngine.of(engine));
+    }
+
+    /**
+     * Set the engine of every client whitelist, for expressions added from
+     * now on
+     */
+    @Value("${CLIENT_MATCH_ENGINE:" + LinearEngine.NAME + "}")
+    public void setClientEngine(String engine) {
+        clientEngine = ExpressionEngine.of(engine);
+        clients.values().forEach(expressions -> expressions.setEngine(clientEngine));
+    }
+
+    /**
+     * Add Expression to the global whitelist, if client is null, or to the
+     * client whitelist otherwise
+     *
+     * @return true if the Expression was added
+     * @return false if it was already whitelisted
+     */
+    public boolean add(Expression expression) {
+        boolean added = scope(expression.getClient()).add(expression.getRegex());
+
+        if (added && matchCache != null) {
+            matchCache.invalidate(expression.getClient());
+        }
+
+        return added;
+    }
+
+    /**
+     * Add regular expressions to the global whitelist, if client is null, or
+     * to the client whitelist otherwise
+     *
+     * @return number of regular expressions actually added
+     */
+    public int addAll(String client, Collection<String> regexes) {
+        int added = scope(client).addAll(regexes);
+
+        if (added > 0 && matchCache != null) {
+            matchCache.invalidate(client);
+        }
+
+        return added;
+    }
+
+    /**
+     * Search for a regular expression that matches the URL, global
+     * expressions take precedence over the client ones
+     *
+     * @return matching regular expression if found
+     * @return null otherwise
+     */
+    public String match(String client, String url) {
+        return matchAsync(client, url).join();
+    }
+
+    /**
+     * Search for a regular expression that matches the URL without blocking
+     * the calling thread on parallel matching, global expressions take
+     * precedence over the client ones
+     *
+     * @return CompletableFuture with matching regular expression if found
+     * @return CompletableFuture with null otherwise
+     */
+    public CompletableFuture<String> matchAsync(String client, String url) {
+        if (matchCache != null) {
+            MatchCache.Result cached = matchCache.get(client, url);
+
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached.getRegex());
+            }
+
+            MatchCache.Stamp stamp = matchCache.stamp(client);
+            return cache(client, url, stamp, match(clients.get(client), url));
+        }
+
+        return match(clients.get(client), url);
+    }
+
+    /**
+     * Search for a regular expression that matches each one of the URLs of a
+     * client, the client whitelist is looked up once for all of them
+     *
+     * @return CompletableFuture with the result of each URL, in order
+     */
+    public List<CompletableFuture<String>> matchAll(String client, List<String> urls) {
+        MatchCache.Stamp stamp = matchCache == null ? null : matchCache.stamp(client);
+        ExpressionSet expressions = clients.get(client);
+        List<CompletableFuture<String>> matches = new ArrayList<>(urls.size());
+
+        for (String url : urls) {
+            MatchCache.Result cached = matchCache == null ? null : matchCache.get(client, url);
+
+            if (cached != null) {
+                matches.add(CompletableFuture.completedFuture(cached.getRegex()));
+            } else if (matchCache != null) {
+                matches.add(cache(client, url, stamp, match(expressions, url)));
+            } else {
+                matches.add(match(expressions, url));
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Pass the regular expressions of the global whitelist, with a null
+     * client, then of every client whitelist, each one in insertion order
+     */
+    public void forEach(BiConsumer<String, List<String>> consumer) {
+        consumer.accept(null, global.regexes());
+        clients.forEach((client, expressions) -> consumer.accept(client, expressions.regexes()));
+    }
+
+    /**
+     * @return number of expressions in the global whitelist
+     */
+    public int globalSize() {
+        return global.size();
+    }
+
+    /**
+     * @return number of expressions in the client whitelist
+     */
+    public int clientSize(String client) {
+        ExpressionSet expressions = clients.get(client);
+        return expressions == null ? 0 : expressions.size();
+    }
+
+    /**
+     * @return number of expressions in every client whitelist
+     */
+    public long clientsSize() {
+        long size = 0;
+
+        for (ExpressionSet expressions : clients.values()) {
+            size += expressions.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * @return number of clients with a whitelist
+     */
+    public int clientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return number of verifications aborted for exceeding the step
+     *     budget
+     */
+    public long exhausted() {
+        long exhausted = global.exhausted();
+
+        for (ExpressionSet expressions : clients.values()) {
+            exhausted += expressions.exhausted();
+        }
+
+        return exhausted;
+    }
+
+    /**
+     * @return number of expressions flagged with nested quantifiers
+     */
+    public int flagged() {
+        int flagged = global.flagged();
+
+        for (ExpressionSet expressions : clients.values()) {
+            flagged += expressions.flagged();
+        }
+
+        return flagged;
+    }
+
+    /**
+     * @return number of regular expressions evaluated by every validation
+     *     so far
+     */
+    public long evaluations() {
+        long evaluations = global.evaluations();
+
+        for (ExpressionSet expressions : clients.values()) {
+            evaluations += expressions.evaluations();
+        }
+
+        if (parallelMatcher != null) {
+            evaluations += parallelMatcher.evaluations();
+        }
+
+        return evaluations;
+    }
+
+    private CompletableFuture<String> match(ExpressionSet expressions, String url) {
+        if (parallelMatcher != null) {
+            List<Entry> candidates = new ArrayList<>();
+            global.candidates(url, candidates);
+
+            if (expressions != null) {
+                expressions.candidates(url, candidates);
+            }
+
+            return parallelMatcher.match(candidates, url, stepBudget);
+        }
+
+        String regex = global.match(url);
+
+        if (regex == null && expressions != null) {
+            regex = expressions.match(url);
+        }
+
+        return CompletableFuture.completedFuture(regex);
+    }
+
+    /**
+     * Cache the result once matched, the stamp must be taken before the
+     * whitelists are read, so a result that misses a concurrently added
+     * expression is never cached as fresh
+     */
+    private CompletableFuture<String> cache(String client, String url, MatchCache.Stamp stamp,
+            CompletableFuture<String> match) {
+        return match.thenApply(regex -> {
+            matchCache.put(client, url, stamp, regex);
+            return regex;
+        });
+    }
+
+    private ExpressionSet scope(String client) {
+        if (client == null) {
+            return global;
+        }
+
+        return clients.computeIfAbsent(client, c -> new ExpressionSet(clientEngine, stepBudget));
+    }
+}
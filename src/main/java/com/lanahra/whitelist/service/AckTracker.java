@@ -0,0 +1,172 @@
+package com.lanahra.whitelist.service;
+
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AckTracker
+ * Acknowledge the messages consumed from each channel cumulatively, instead
+ * of one acknowledgement per message. Messages are tracked on delivery and
+ * settled once processed, in any order. Processed messages are acknowledged
+ * at once, with a single cumulative acknowledgement up to the last one
+ * before the oldest message still in flight, once size of them are waiting
+ * or once the oldest of them has waited for the max wait.
+ *
+ * Rejections are sent right away, since they cannot be cumulative without
+ * rejecting the messages in flight before them.
+ *
+ * Messages waiting for their acknowledgement still count against the
+ * prefetch count of the channel, the max wait bounds how long they do.
+ */
+public class AckTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AckTracker.class);
+
+    private final int size;
+
+    private final long maxWait;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<Channel, Tracker> trackers = new ConcurrentHashMap<>();
+
+    public AckTracker(int size, long maxWait, ScheduledExecutorService scheduler) {
+        this.size = size;
+        this.maxWait = maxWait;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Track message delivered by channel, before it is processed
+     */
+    public void track(Channel channel, long deliveryTag) {
+        trackers.computeIfAbsent(channel, this::open).track(deliveryTag);
+    }
+
+    /**
+     * @return true if the message is tracked and not settled yet
+     */
+    public boolean isTracked(Channel channel, long deliveryTag) {
+        Tracker tracker = trackers.get(channel);
+        return tracker != null && tracker.isTracked(deliveryTag);
+    }
+
+    /**
+     * Settle processed message, it is acknowledged along with the others
+     */
+    public void ack(Channel channel, long deliveryTag) {
+        Tracker tracker = trackers.get(channel);
+
+        if (tracker != null) {
+            tracker.ack(deliveryTag);
+        }
+    }
+
+    /**
+     * Settle message that could not be processed, it is rejected right away
+     */
+    public void reject(Channel channel, long deliveryTag, boolean requeue) {
+        Tracker tracker = trackers.get(channel);
+
+        if (tracker != null) {
+            tracker.reject(deliveryTag, requeue);
+        }
+    }
+
+    private Tracker open(Channel channel) {
+        channel.addShutdownListener(cause -> trackers.remove(channel));
+        return new Tracker(channel);
+    }
+
+    /**
+     * Messages in flight and processed messages of a single channel
+     */
+    private final class Tracker {
+
+        private final Channel channel;
+
+        private final NavigableSet<Long> inFlight = new TreeSet<>();
+
+        private final NavigableSet<Long> processed = new TreeSet<>();
+
+        private ScheduledFuture<?> timeout;
+
+        Tracker(Channel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void track(long deliveryTag) {
+            inFlight.add(deliveryTag);
+        }
+
+        synchronized boolean isTracked(long deliveryTag) {
+            return inFlight.contains(deliveryTag);
+        }
+
+        synchronized void ack(long deliveryTag) {
+            if (!inFlight.remove(deliveryTag)) {
+                return;
+            }
+
+            processed.add(deliveryTag);
+
+            if (processed.size() >= size) {
+                flush();
+            } else if (timeout == null) {
+                timeout = scheduler.schedule(this::flush, maxWait, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void reject(long deliveryTag, boolean requeue) {
+            if (!inFlight.remove(deliveryTag)) {
+                return;
+            }
+
+            try {
+                channel.basicReject(deliveryTag, requeue);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Rejection Failed: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * Acknowledge every processed message before the oldest message in
+         * flight, the rest waits for the next flush
+         */
+        synchronized void flush() {
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+
+            if (processed.isEmpty()) {
+                return;
+            }
+
+            Long last = inFlight.isEmpty() ? processed.last() : processed.lower(inFlight.first());
+
+            if (last != null) {
+                try {
+                    channel.basicAck(last, true);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Acknowledgement Failed: {}", e.getMessage());
+                }
+
+                processed.headSet(last, true).clear();
+            }
+
+            if (!processed.isEmpty()) {
+                timeout = scheduler.schedule(this::flush, maxWait, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.lanahra.whitelist.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * BoundedExecutor
+ * Run tasks on another executor, at most permits of them at once. A task
+ * is handed over right away and waits for its permit on its own thread,
+ * which is cheap for a virtual thread, so the caller never blocks.
+ */
+public class BoundedExecutor implements Executor {
+
+    private final Executor executor;
+
+    private final Semaphore permits;
+
+    public BoundedExecutor(Executor executor, int permits) {
+        this.executor = executor;
+        this.permits = new Semaphore(permits);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            permits.acquireUninterruptibly();
+
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * @return number of tasks that may start right away
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+}
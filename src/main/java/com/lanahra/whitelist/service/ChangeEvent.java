@@ -0,0 +1,67 @@
+package com.lanahra.whitelist.service;
+
+import java.util.List;
+
+/**
+ * Change Event
+ * Regular expressions persisted by an instance in a single whitelist, the
+ * global whitelist if client is null, broadcast to every other instance so
+ * they add them to their resident Whitelist.
+ *
+ * Versions are consecutive for each whitelist of each origin instance, so a
+ * skipped version reveals a missed event for that whitelist.
+ *
+ * @see ChangePropagation
+ */
+public class ChangeEvent {
+
+    private String origin;
+    private Long version;
+    private String client;
+    private List<String> regexes;
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public void setClient(String client) {
+        this.client = client;
+    }
+
+    public List<String> getRegexes() {
+        return regexes;
+    }
+
+    public void setRegexes(List<String> regexes) {
+        this.regexes = regexes;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent [origin="
+            + origin
+            + ", version="
+            + version
+            + ", client="
+            + client
+            + ", regexes="
+            + (regexes == null ? 0 : regexes.size())
+            + "]";
+    }
+}
@@ -0,0 +1,230 @@
+package com.lanahra.whitelist.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * ChangePropagation
+ * Broadcast every change of a whitelist to the other instances through the
+ * $CHANGE_EXCHANGE fanout exchange, and keep track of the last version of
+ * each whitelist received from every other instance.
+ *
+ * Versions of a whitelist are published in order, a version further than
+ * the next one means events were missed, so the whitelist must be resynced
+ * from the repository. The first event received from another instance
+ * is only in order if it is the first version of the whitelist, otherwise
+ * the whitelist is resynced as well, since changes may have been published
+ * before the change queue of this instance was bound, while its whitelist
+ * was loading. Events without a version are treated as a gap. Adding
+ * expressions is idempotent, so late or repeated events are still applied.
+ *
+ * Versions received from an instance are forgotten once it sent nothing for
+ * $CHANGE_ORIGIN_EXPIRY milliseconds, so restarted instances do not pile
+ * up, its next event is then handled as the first one.
+ *
+ * The version of a whitelist only advances once its event is sent, the
+ * regular expressions of a failed event are sent again every
+ * $CHANGE_RETRY_DELAY milliseconds, or along with the next change of the
+ * whitelist, until sent.
+ *
+ * @see ChangeEvent
+ */
+@Component
+public class ChangePropagation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangePropagation.class);
+
+    /**
+     * Outcome of receiving a ChangeEvent
+     */
+    public enum Delivery {
+        /** Published by this instance */
+        OWN,
+        /** Next version, or first version of the whitelist */
+        IN_ORDER,
+        /** Version already received */
+        LATE,
+        /** Versions were skipped, or may have been before the first one received */
+        GAP
+    }
+
+    private final String origin = UUID.randomUUID().toString();
+
+    private final ConcurrentMap<List<String>, Published> published = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<List<String>, Received> received = new ConcurrentHashMap<>();
+
+    @Autowired
+    private RabbitTemplate changeTemplate;
+
+    @Value("${CHANGE_RETRY_DELAY:5000}")
+    private long retryDelay = 5000;
+
+    @Value("${CHANGE_ORIGIN_EXPIRY:600000}")
+    private long originExpiry = 600000;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void initialize() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("change-"));
+        scheduler.scheduleWithFixedDelay(this::maintain, retryDelay, retryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Publish the regular expressions just persisted in the global
+     * whitelist, if client is null, or in the client whitelist otherwise.
+     * A failed publish is logged and its regular expressions are published
+     * again later.
+     */
+    public void publish(String client, Collection<String> regexes) {
+        Published whitelist = published.computeIfAbsent(Collections.singletonList(client), c -> new Published());
+
+        synchronized (whitelist) {
+            whitelist.unsent.addAll(regexes);
+            send(client, whitelist);
+        }
+    }
+
+    /**
+     * Track the version of a received event
+     *
+     * @return Delivery of the event
+     */
+    public Delivery receive(ChangeEvent event) {
+        if (origin.equals(event.getOrigin())) {
+            return Delivery.OWN;
+        }
+
+        if (event.getVersion() == null) {
+            return Delivery.GAP;
+        }
+
+        Delivery[] delivery = new Delivery[1];
+        long version = event.getVersion();
+        long now = System.currentTimeMillis();
+
+        received.compute(Arrays.asList(event.getOrigin(), event.getClient()), (key, last) -> {
+            if (last == null ? version == 1 : version == last.version + 1) {
+                delivery[0] = Delivery.IN_ORDER;
+            } else if (last != null && version <= last.version) {
+                delivery[0] = Delivery.LATE;
+                return new Received(last.version, now);
+            } else {
+                delivery[0] = Delivery.GAP;
+            }
+
+            return new Received(version, now);
+        });
+
+        return delivery[0];
+    }
+
+    /**
+     * @return number of whitelists of other instances tracked
+     */
+    public int tracked() {
+        return received.size();
+    }
+
+    /**
+     * Send again the regular expressions of failed events, and forget the
+     * instances that sent nothing for the expiry. A task scheduled at fixed
+     * delay is cancelled by its first failure, so failures are only logged.
+     */
+    void maintain() {
+        try {
+            published.forEach((key, whitelist) -> {
+                synchronized (whitelist) {
+                    if (!whitelist.unsent.isEmpty()) {
+                        send(key.get(0), whitelist);
+                    }
+                }
+            });
+
+            long expired = System.currentTimeMillis() - originExpiry;
+            received.values().removeIf(last -> last.time < expired);
+        } catch (RuntimeException e) {
+            LOGGER.error("Change Maintenance Failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Send every unsent regular expression of the whitelist as its next
+     * version, called with the lock of the whitelist
+     */
+    private void send(String client, Published whitelist) {
+        ChangeEvent event = new ChangeEvent();
+        event.setOrigin(origin);
+        event.setClient(client);
+        event.setRegexes(new ArrayList<>(whitelist.unsent));
+        event.setVersion(whitelist.version + 1);
+
+        try {
+            changeTemplate.convertAndSend(event);
+        } catch (AmqpException e) {
+            LOGGER.error("Change Failed: {}", e.getMessage());
+            return;
+        }
+
+        whitelist.version = event.getVersion();
+        whitelist.unsent.clear();
+    }
+
+    /**
+     * Last version of a whitelist sent by this instance, along with the
+     * regular expressions not sent yet
+     */
+    private static final class Published {
+
+        private final Set<String> unsent = new LinkedHashSet<>();
+
+        private long version;
+    }
+
+    /**
+     * Last version of a whitelist received from another instance, along
+     * with the time it was received
+     */
+    private static final class Received {
+
+        private final long version;
+
+        private final long time;
+
+        Received(long version, long time) {
+            this.version = version;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.lanahra.whitelist.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ConsistentHash
+ * Ring of shards, each one placed on the ring by a number of virtual nodes,
+ * a key belongs to the shard of the first node at or after its hash, so
+ * adding a shard only moves the keys of about one shard out of every
+ * other one.
+ *
+ * Hashes only depend on the keys, every instance computes the same ring.
+ */
+public class ConsistentHash {
+
+    private final long[] hashes;
+
+    private final int[] shards;
+
+    public ConsistentHash(int shardCount, int virtualNodes) {
+        long[][] nodes = new long[shardCount * virtualNodes][];
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                nodes[shard * virtualNodes + node] = new long[] {hash("shard-" + shard + "-" + node), shard};
+            }
+        }
+
+        Arrays.sort(nodes, (a, b) -> Long.compare(a[0], b[0]));
+
+        hashes = new long[nodes.length];
+        shards = new int[nodes.length];
+
+        for (int i = 0; i < nodes.length; i++) {
+            hashes[i] = nodes[i][0];
+            shards[i] = (int) nodes[i][1];
+        }
+    }
+
+    /**
+     * @return shard of the key
+     */
+    public int shard(String key) {
+        int i = Arrays.binarySearch(hashes, hash(key));
+
+        if (i < 0) {
+            i = -i - 1;
+        }
+
+        return shards[i == hashes.length ? 0 : i];
+    }
+
+    /**
+     * 64 bit FNV-1a of the UTF-8 bytes, with a final avalanche so close keys
+     * spread over the whole ring
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lanahra.whitelist.service;
+
+/**
+ * ConsumerScaler
+ * Scaling policy of a listener container, decides its number of consumers
+ * from the depth of its queues and the match latency observed since the
+ * previous decision.
+ *
+ * Consumers grow by half, at least by one, while more than SCALE_UP_BACKLOG
+ * messages per consumer are waiting in the queues, as long as the latency
+ * is within the target. Past the target, matching is saturated and more
+ * consumers would only contend for the same cores. Consumers shrink by one
+ * once fewer messages than consumers have been waiting for SCALE_DOWN_TICKS
+ * decisions in a row.
+ */
+public class ConsumerScaler {
+
+    static final int SCALE_UP_BACKLOG = 10;
+
+    static final int SCALE_DOWN_TICKS = 3;
+
+    private final int min;
+
+    private final int max;
+
+    private final double targetLatency;
+
+    private int idleTicks;
+
+    public ConsumerScaler(int min, int max, double targetLatencyMillis) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid consumers " + min + " to " + max);
+        }
+
+        this.min = min;
+        this.max = max;
+        this.targetLatency = targetLatencyMillis;
+    }
+
+    /**
+     * @param depth messages waiting in the queues, NaN if unknown
+     * @param latencyMillis mean match latency, NaN if nothing was matched
+     * @return number of consumers from now on
+     */
+    public synchronized int decide(int consumers, double depth, double latencyMillis) {
+        if (Double.isNaN(depth)) {
+            return clamp(consumers);
+        }
+
+        if (depth >= consumers) {
+            idleTicks = 0;
+        } else if (++idleTicks >= SCALE_DOWN_TICKS) {
+            idleTicks = 0;
+            return clamp(consumers - 1);
+        }
+
+        boolean saturated = !Double.isNaN(latencyMillis) && latencyMillis > targetLatency;
+
+        if (depth > (double) consumers * SCALE_UP_BACKLOG && !saturated) {
+            return clamp(consumers + Math.max(1, consumers / 2));
+        }
+
+        return clamp(consumers);
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    private int clamp(int consumers) {
+        return Math.max(min, Math.min(max, consumers));
+    }
+}
@@ -1,11 +1,27 @@
 package com.lanahra.whitelist.service;
 
+import com.lanahra.whitelist.entity.BulkExpression;
 import com.lanahra.whitelist.entity.Expression;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.PostConstruct;
 import javax.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Component;
 
 /**
@@ -14,26 +30,150 @@ import org.springframework.stereotype.Component;
 @Component
 public class Listener {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(Listener.class);
+
     private static final String INSERTION_FACTORY = "insertionListenerContainerFactory";
+    private static final String BULK_INSERTION_FACTORY = "bulkInsertionListenerContainerFactory";
     private static final String VALIDATION_FACTORY = "validationListenerContainerFactory";
+    private static final String CHANGE_FACTORY = "changeListenerContainerFactory";
 
     @Autowired
     private Service service;
 
     @Autowired
-    private RabbitTemplate validationTemplate;
+    private ResponsePublisher responsePublisher;
+
+    @Autowired
+    private RabbitTemplate shardTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ServiceMetrics metrics;
+
+    @Autowired
+    private ThreadPoolTaskScheduler batchScheduler;
+
+    @Autowired
+    private ThreadPoolTaskExecutor batchExecutor;
+
+    @Autowired
+    private ThreadPoolTaskScheduler ackScheduler;
+
+    @Value("${INSERTION_QUEUE}")
+    private String insertionQueueName;
+
+    @Value("${BULK_INSERTION_QUEUE:bulk.insertion.queue}")
+    private String bulkInsertionQueueName;
+
+    @Value("${VALIDATION_QUEUE}")
+    private String validationQueueName;
+
+    @Value("${INSERTION_BATCH_SIZE:1}")
+    private Integer insertionBatchSize;
+
+    @Value("${INSERTION_BATCH_MAX_WAIT:100}")
+    private Long insertionBatchMaxWait;
+
+    @Value("${VALIDATION_BATCH_SIZE:1}")
+    private Integer validationBatchSize;
+
+    @Value("${VALIDATION_BATCH_MAX_WAIT:10}")
+    private Long validationBatchMaxWait;
+
+    @Value("${VALIDATION_ACK_BATCH_SIZE:1}")
+    private Integer validationAckBatchSize;
+
+    @Value("${VALIDATION_ACK_MAX_WAIT:10}")
+    private Long validationAckMaxWait;
+
+    private MessageBatcher<Expression> insertionBatcher;
+
+    private MessageBatcher<ValidationRequest> validationBatcher;
+
+    private AckTracker validationAcks;
+
+    /**
+     * Batch insertions if $INSERTION_BATCH_SIZE is greater than one, and
+     * validation requests if $VALIDATION_BATCH_SIZE is greater than one, a
+     * batch is flushed once full or after $INSERTION_BATCH_MAX_WAIT or
+     * $VALIDATION_BATCH_MAX_WAIT milliseconds, then processed by the
+     * batchExecutor, so neither the consumer nor the scheduler thread waits
+     * for a batch.
+     *
+     * Otherwise, validation requests are acknowledged cumulatively if
+     * $VALIDATION_ACK_BATCH_SIZE is greater than one, once that many are
+     * processed or after $VALIDATION_ACK_MAX_WAIT milliseconds.
+     */
+    @PostConstruct
+    public void initialize() {
+        if (insertionBatchSize > 1) {
+            insertionBatcher = new MessageBatcher<>(insertionBatchSize, insertionBatchMaxWait,
+                batchScheduler.getScheduledExecutor(), this::processInsertionBatch);
+        }
+
+        if (validationBatchSize > 1) {
+            validationBatcher = MessageBatcher.perMessage(validationBatchSize, validationBatchMaxWait,
+                batchScheduler.getScheduledExecutor(), this::processValidationBatch);
+        } else if (validationAckBatchSize > 1) {
+            validationAcks = new AckTracker(validationAckBatchSize, validationAckMaxWait,
+                ackScheduler.getScheduledExecutor());
+        }
+    }
 
     /**
      * Receive incoming Expression insertion message, then process it with the
      * Service, incoming message is validated and must be of the JSON format:
      *
      * {"client": <string/nullable>, "regex": <string>}
+     *
+     * In batch mode, the Expression is acknowledged along with the rest of
+     * its batch, once the batch is committed.
+     *
+     * When sharded, Expressions of clients owned by another shard are
+     * forwarded to it.
      */
-    @RabbitListener(queues = "${INSERTION_QUEUE}", containerFactory = INSERTION_FACTORY)
-    public void listenInsertionQueue(@Valid @Payload Expression expression) {
+    @RabbitListener(queues = "#{@shardRouter.queues('${INSERTION_QUEUE}')}", containerFactory = INSERTION_FACTORY)
+    public void listenInsertionQueue(@Valid @Payload Expression expression, Channel channel,
+            @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+            @Header(name = AmqpHeaders.TIMESTAMP, required = false) Date timestamp,
+            @Header(name = ShardRouter.SHARD_HEADER, required = false) Integer shard) {
+        metrics.recordLag("insertion", timestamp);
+
+        if (shard == null && !shardRouter.owns(expression.getClient())) {
+            forward(insertionQueueName, expression.getClient(), expression, channel, deliveryTag,
+                insertionBatcher != null);
+            return;
+        }
+
+        if (insertionBatcher != null) {
+            insertionBatcher.add(channel, deliveryTag, expression);
+            return;
+        }
+
         service.processExpressionInsertion(expression);
     }
 
+    /**
+     * Receive incoming bulk import message, then process it with the Service
+     * as a single batch, incoming message is validated, including each one of
+     * its regular expressions, and must be of the JSON format:
+     *
+     * {"client": <string/nullable>, "regexes": [<string>, ...]}
+     */
+    @RabbitListener(queues = "#{@shardRouter.queues('${BULK_INSERTION_QUEUE:bulk.insertion.queue}')}",
+        containerFactory = BULK_INSERTION_FACTORY)
+    public void listenBulkInsertionQueue(@Valid @Payload BulkExpression bulkExpression,
+            @Header(name = ShardRouter.SHARD_HEADER, required = false) Integer shard) {
+        if (shard == null && !shardRouter.owns(bulkExpression.getClient())) {
+            forward(bulkInsertionQueueName, bulkExpression.getClient(), bulkExpression, null, 0, false);
+            return;
+        }
+
+        service.processBulkExpressionInsertion(bulkExpression);
+    }
+
     /**
      * Receive incoming URL validation request message, then process it with
      * the Service, incoming message is validated and must be of the JSON
@@ -46,10 +186,151 @@ public class Listener {
      * format:
      *
      * {"match": <boolean>, "regex": <string/nullable>, "correlationId": <integer>}
+     *
+     * The consumer thread does not wait for the processing nor for the
+     * publishing, the request is only acknowledged once the broker confirms
+     * its response. In batch mode, the request is acknowledged along with the
+     * rest of its batch, unless some responses of the batch failed, then only
+     * the requests of the failed ones are requeued.
+     *
+     * When sharded, requests of clients owned by another shard are forwarded
+     * to it, and acknowledged once forwarded.
+     */
+    @RabbitListener(id = ValidationAutoscaler.LISTENER_ID, queues = "#{@shardRouter.queues('${VALIDATION_QUEUE}')}",
+        containerFactory = VALIDATION_FACTORY)
+    public void listenValidationQueue(@Valid @Payload ValidationRequest request, Channel channel,
+            @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+            @Header(name = AmqpHeaders.TIMESTAMP, required = false) Date timestamp,
+            @Header(name = ShardRouter.SHARD_HEADER, required = false) Integer shard) {
+        metrics.recordLag("validation", timestamp);
+
+        if (validationAcks != null) {
+            validationAcks.track(channel, deliveryTag);
+        }
+
+        if (shard == null && !shardRouter.owns(request.getClient())) {
+            forward(validationQueueName, request.getClient(), request, channel, deliveryTag, true);
+            return;
+        }
+
+        if (validationBatcher != null) {
+            validationBatcher.add(channel, deliveryTag, request);
+            return;
+        }
+
+        service.processExpressionValidation(request)
+            .whenComplete((response, t) -> {
+                if (t != null) {
+                    LOGGER.error("Validation Failed: {}", t.getMessage());
+                    settle(channel, deliveryTag, false, false);
+                    return;
+                }
+
+                responsePublisher.publish(response)
+                    .whenComplete((confirmed, e) -> {
+                        if (e != null) {
+                            LOGGER.error("Send Failed: {}", e.getMessage());
+                            settle(channel, deliveryTag, false, true);
+                            return;
+                        }
+
+                        settle(channel, deliveryTag, true, false);
+                    });
+            });
+    }
+
+    /**
+     * Receive whitelist changes of the other instances, from the queue of
+     * this instance bound to the $CHANGE_EXCHANGE, the message must be of the
+     * JSON format:
+     *
+     * {"origin": <string>, "version": <integer>, "client": <string/nullable>, "regexes": [<string>, ...]}
+     */
+    @RabbitListener(queues = "#{changeQueue.name}", containerFactory = CHANGE_FACTORY)
+    public void listenChangeQueue(@Payload ChangeEvent event) {
+        service.processChangeEvent(event);
+    }
+
+    /**
+     * Persist a whole batch of Expressions, the batch is committed by the
+     * time the returned future is completed
      */
-    @RabbitListener(queues = "${VALIDATION_QUEUE}", containerFactory = VALIDATION_FACTORY)
-    public void listenValidationQueue(@Valid @Payload ValidationRequest request) {
-        ValidationResponse response = service.processExpressionValidation(request);
-        validationTemplate.convertAndSend(response);
+    private CompletableFuture<List<Expression>> processInsertionBatch(List<Expression> expressions) {
+        return CompletableFuture.supplyAsync(() -> service.processExpressionInsertions(expressions), batchExecutor);
+    }
+
+    /**
+     * Forward a message to the queue of the shard owning its client, marked
+     * with the shard header. If the listener acknowledges manually, the
+     * message is acknowledged once forwarded, or requeued if forwarding
+     * failed, otherwise the failure is thrown so the container requeues it.
+     */
+    private void forward(String ingress, String client, Object payload, Channel channel, long deliveryTag,
+            boolean manual) {
+        int shard = shardRouter.shard(client);
+
+        try {
+            shardTemplate.convertAndSend(shardRouter.queue(ingress, shard), payload, message -> {
+                message.getMessageProperties().setHeader(ShardRouter.SHARD_HEADER, shard);
+                return message;
+            });
+        } catch (AmqpException e) {
+            if (!manual) {
+                throw e;
+            }
+
+            LOGGER.error("Forward Failed: {}", e.getMessage());
+            settle(channel, deliveryTag, false, true);
+            return;
+        }
+
+        if (manual) {
+            settle(channel, deliveryTag, true, false);
+        }
+    }
+
+    /**
+     * Process a whole batch of requests and publish all of its responses,
+     * each request is complete once its own response is confirmed
+     */
+    private List<CompletableFuture<Void>> processValidationBatch(List<ValidationRequest> requests) {
+        CompletableFuture<List<ValidationResponse>> validated = CompletableFuture
+            .supplyAsync(() -> requests, batchExecutor)
+            .thenCompose(service::processExpressionValidations);
+        List<CompletableFuture<Void>> published = new ArrayList<>(requests.size());
+
+        for (int i = 0; i < requests.size(); i++) {
+            int index = i;
+            published.add(validated.thenCompose(responses -> responsePublisher.publish(responses.get(index))));
+        }
+
+        return published;
+    }
+
+    /**
+     * Acknowledge the request once its response is sent, otherwise reject it,
+     * requeueing it if it may succeed on redelivery. Tracked requests are
+     * settled through the AckTracker.
+     */
+    private void settle(Channel channel, long deliveryTag, boolean ack, boolean requeue) {
+        if (validationAcks != null && validationAcks.isTracked(channel, deliveryTag)) {
+            if (ack) {
+                validationAcks.ack(channel, deliveryTag);
+            } else {
+                validationAcks.reject(channel, deliveryTag, requeue);
+            }
+
+            return;
+        }
+
+        try {
+            if (ack) {
+                channel.basicAck(deliveryTag, false);
+            } else {
+                channel.basicReject(deliveryTag, requeue);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Acknowledgement Failed: {}", e.getMessage());
+        }
     }
 }
@@ -1,8 +1,21 @@
 package com.lanahra.whitelist.service;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.Executor;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Exchange;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessagePostProcessor;
 import org.springframework.amqp.core.Queue;
@@ -10,6 +23,7 @@ import org.springframework.amqp.rabbit.annotation.EnableRabbit;
 import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
@@ -17,9 +31,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
-import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.validation.Validator;
 
 /**
@@ -27,58 +42,214 @@ import org.springframework.validation.Validator;
  */
 @Configuration
 @EnableRabbit
-@EnableAsync
 public class ListenerConfiguration implements RabbitListenerConfigurer {
 
+    private static final int DEFAULT_PREFETCH_COUNT = 250;
+
     @Autowired
     private Validator validator;
 
     @Autowired
     private ConnectionFactory rabbitConnectionFactory;
 
+    @Autowired
+    private ShardRouter shardRouter;
+
     @Value("${INSERTION_QUEUE}")
     private String insertionQueueName;
 
+    @Value("${BULK_INSERTION_QUEUE:bulk.insertion.queue}")
+    private String bulkInsertionQueueName;
+
     @Value("${VALIDATION_QUEUE}")
     private String validationQueueName;
 
+    @Value("${SHARD_EXCHANGE:whitelist.shards}")
+    private String shardExchangeName;
+
+    @Value("${CHANGE_EXCHANGE:whitelist.changes}")
+    private String changeExchangeName;
+
     @Value("${RESPONSE_EXCHANGE}")
     private String validationExchangeName;
 
     @Value("${RESPONSE_ROUTING_KEY}")
     private String validationRoutingKey;
 
-    @Value("${NUMBER_OF_VALIDATION_CONSUMERS}")
+    @Value("${VALIDATION_MIN_CONSUMERS:${NUMBER_OF_VALIDATION_CONSUMERS}}")
     private Integer numberValidationConsumers;
 
+    @Value("${INSERTION_CONSUMERS:3}")
+    private Integer numberInsertionConsumers;
+
+    @Value("${INSERTION_PREFETCH:" + DEFAULT_PREFETCH_COUNT + "}")
+    private Integer insertionPrefetch;
+
+    @Value("${VALIDATION_PREFETCH:" + DEFAULT_PREFETCH_COUNT + "}")
+    private Integer validationPrefetch;
+
+    @Value("${INSERTION_BATCH_SIZE:1}")
+    private Integer insertionBatchSize;
+
+    @Value("${VALIDATION_BATCH_SIZE:1}")
+    private Integer validationBatchSize;
+
+    @Value("${BATCH_WORKERS:0}")
+    private int batchWorkers;
+
+    @Value("${VIRTUAL_THREADS:false}")
+    private boolean virtualThreads;
+
+    @Value("${VALIDATION_PIPELINE:listener}")
+    private String validationPipeline;
+
     /**
      * ListenerContainerFactory for insertion listener
-     * Simple factory with standard settings.
+     * Concurrent consumers are defined by $INSERTION_CONSUMERS, each one
+     * prefetching $INSERTION_PREFETCH messages. If $INSERTION_BATCH_SIZE is
+     * set, Expressions are acknowledged manually once their batch is
+     * committed and the prefetch count holds at least two batches.
      */
     @Bean
     public SimpleRabbitListenerContainerFactory insertionListenerContainerFactory() {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(rabbitConnectionFactory);
-        factory.setConcurrentConsumers(3);
+        factory.setConcurrentConsumers(numberInsertionConsumers);
+        factory.setMessageConverter(new Jackson2JsonMessageConverter());
+        factory.setAfterReceivePostProcessors(jsonPostProcessor());
+        factory.setPrefetchCount(insertionPrefetch);
+        consumeOn(factory, "insertion-");
+
+        if (insertionBatchSize > 1) {
+            factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+            factory.setAdviceChain(new RejectingListenerAdvice());
+            factory.setPrefetchCount(Math.max(insertionPrefetch, 2 * insertionBatchSize));
+        }
+
+        return factory;
+    }
+
+    /**
+     * ListenerContainerFactory for bulk insertion listener
+     * A single consumer fetching one import at a time, since every import
+     * may carry thousands of Expressions.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory bulkInsertionListenerContainerFactory() {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(rabbitConnectionFactory);
+        factory.setConcurrentConsumers(1);
+        factory.setPrefetchCount(1);
         factory.setMessageConverter(new Jackson2JsonMessageConverter());
         factory.setAfterReceivePostProcessors(jsonPostProcessor());
+        consumeOn(factory, "bulk-insertion-");
         return factory;
     }
 
     /**
      * ListenerContainerFactory for validation listener
-     * Concurrent consumers are defined by $NUMBER_OF_VALIDATION_CONSUMERS.
+     * Concurrent consumers start at $VALIDATION_MIN_CONSUMERS, or
+     * $NUMBER_OF_VALIDATION_CONSUMERS, then they are resized at runtime by
+     * the ValidationAutoscaler. Requests are acknowledged manually by the
+     * listener once the response is sent, so in flight requests are bounded
+     * by the prefetch count, $VALIDATION_PREFETCH per consumer, which must
+     * hold at least two batches when $VALIDATION_BATCH_SIZE is set. The
+     * container is not started if $VALIDATION_PIPELINE is reactive.
      */
     @Bean
     public SimpleRabbitListenerContainerFactory validationListenerContainerFactory() {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(rabbitConnectionFactory);
         factory.setConcurrentConsumers(numberValidationConsumers);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setAdviceChain(new RejectingListenerAdvice());
+
+        factory.setPrefetchCount(validationPrefetch);
+
+        if (validationBatchSize > 1) {
+            factory.setPrefetchCount(Math.max(validationPrefetch, 2 * validationBatchSize));
+        }
+
         factory.setMessageConverter(new Jackson2JsonMessageConverter());
         factory.setAfterReceivePostProcessors(jsonPostProcessor());
+        consumeOn(factory, "validation-");
+        factory.setAutoStartup(!"reactive".equals(validationPipeline));
         return factory;
     }
 
+    /**
+     * ListenerContainerFactory for change listener
+     * A single consumer, so changes of a whitelist are applied in the order
+     * they were published.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory changeListenerContainerFactory() {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(rabbitConnectionFactory);
+        factory.setConcurrentConsumers(1);
+        factory.setMessageConverter(new Jackson2JsonMessageConverter());
+        factory.setAfterReceivePostProcessors(jsonPostProcessor());
+        consumeOn(factory, "change-");
+        return factory;
+    }
+
+    /**
+     * Run the consumers of the containers on virtual threads if
+     * $VIRTUAL_THREADS is set, so a consumer blocked on the database or the
+     * broker does not hold a platform thread, their number is still bounded
+     * by the concurrent consumers of the container.
+     */
+    private void consumeOn(SimpleRabbitListenerContainerFactory factory, String prefix) {
+        if (virtualThreads) {
+            factory.setTaskExecutor(new SimpleAsyncTaskExecutor(VirtualThreads.factory(prefix)));
+        }
+    }
+
+    /**
+     * Scheduler for flushing batches of messages that waited too long, it
+     * only triggers the flushes, batches are processed by the batchExecutor
+     */
+    @Bean
+    public ThreadPoolTaskScheduler batchScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("batch-");
+        return scheduler;
+    }
+
+    /**
+     * Executor processing flushed batches, on $BATCH_WORKERS threads, one
+     * per core by default, queued batches are bounded by the prefetch count
+     * of the batching consumers
+     */
+    @Bean
+    public ThreadPoolTaskExecutor batchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(batchWorkers > 0 ? batchWorkers : Runtime.getRuntime().availableProcessors());
+        executor.setThreadNamePrefix("batch-worker-");
+        return executor;
+    }
+
+    /**
+     * Scheduler for flushing cumulative acknowledgements that waited too
+     * long
+     */
+    @Bean
+    public ThreadPoolTaskScheduler ackScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("ack-");
+        return scheduler;
+    }
+
+    /**
+     * Scheduler for the ValidationAutoscaler, whose ticks query the broker
+     */
+    @Bean
+    public ThreadPoolTaskScheduler autoscaleScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("autoscale-");
+        return scheduler;
+    }
+
     /**
      * Listeners receive message in JSON format, after message is receive,
      * content type is changed to "application/json", in order for them to be
@@ -121,6 +292,14 @@ public class ListenerConfiguration implements RabbitListenerConfigurer {
         return new Queue(insertionQueueName);
     }
 
+    /**
+     * Create bulk insertion queue in broker.
+     */
+    @Bean
+    public Queue bulkInsertionQueue() {
+        return new Queue(bulkInsertionQueueName);
+    }
+
     /**
      * Create validation queue in broker.
      */
@@ -129,6 +308,63 @@ public class ListenerConfiguration implements RabbitListenerConfigurer {
         return new Queue(validationQueueName);
     }
 
+    /**
+     * Create shard exchange in broker
+     */
+    @Bean
+    public DirectExchange shardExchange() {
+        return new DirectExchange(shardExchangeName);
+    }
+
+    /**
+     * Create the queue of every shard for every ingress queue in broker,
+     * bound to the shard exchange by its name, so forwarded messages are
+     * kept even before the instance of the shard is started.
+     */
+    @Bean
+    public List<Declarable> shardDeclarables() {
+        List<Declarable> declarables = new ArrayList<>();
+
+        if (!shardRouter.isSharded()) {
+            return declarables;
+        }
+
+        for (String ingress : new String[] {insertionQueueName, bulkInsertionQueueName, validationQueueName}) {
+            for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+                Queue queue = new Queue(shardRouter.queue(ingress, shard));
+                declarables.add(queue);
+                declarables.add(BindingBuilder.bind(queue).to(shardExchange()).with(queue.getName()));
+            }
+        }
+
+        return declarables;
+    }
+
+    /**
+     * Create change exchange in broker
+     */
+    @Bean
+    public FanoutExchange changeExchange() {
+        return new FanoutExchange(changeExchangeName);
+    }
+
+    /**
+     * Create the change queue of this instance in broker, exclusive to the
+     * instance and deleted once it disconnects
+     */
+    @Bean
+    public Queue changeQueue() {
+        return new AnonymousQueue();
+    }
+
+    /**
+     * Bind the change queue of this instance to the change exchange
+     */
+    @Bean
+    public Binding changeBinding() {
+        return BindingBuilder.bind(changeQueue()).to(changeExchange());
+    }
+
     /**
      * Create validation exchange in broker
      */
@@ -137,9 +373,61 @@ public class ListenerConfiguration implements RabbitListenerConfigurer {
         return new DirectExchange(validationExchangeName);
     }
 
+    /**
+     * Sample the depth of every queue on each scrape, the depth is unknown
+     * while the broker is unreachable
+     */
+    @Bean
+    public MeterBinder queueMetrics(AmqpAdmin amqpAdmin) {
+        return registry -> {
+            for (String queue : new String[] {insertionQueueName, bulkInsertionQueueName, validationQueueName}) {
+                Gauge.builder("whitelist.queue.depth", amqpAdmin, admin -> depth(admin, queue))
+                    .tag("queue", queue)
+                    .register(registry);
+            }
+        };
+    }
+
+    static double depth(AmqpAdmin admin, String queue) {
+        try {
+            Properties properties = admin.getQueueProperties(queue);
+
+            if (properties == null) {
+                return Double.NaN;
+            }
+
+            return ((Number) properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT)).doubleValue();
+        } catch (AmqpException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Configure template for broadcasting changes to every instance
+     */
+    @Bean
+    public RabbitTemplate changeTemplate() {
+        RabbitTemplate template = new RabbitTemplate(rabbitConnectionFactory);
+        template.setExchange(changeExchangeName);
+        template.setMessageConverter(new Jackson2JsonMessageConverter());
+        return template;
+    }
+
+    /**
+     * Configure template for forwarding messages to the queue of a shard
+     */
+    @Bean
+    public RabbitTemplate shardTemplate() {
+        RabbitTemplate template = new RabbitTemplate(rabbitConnectionFactory);
+        template.setExchange(shardExchangeName);
+        template.setMessageConverter(new Jackson2JsonMessageConverter());
+        return template;
+    }
+
     /**
      * Configure template for sending validation responses, with proper
-     * exchange, routing key and JSON converter.
+     * exchange, routing key and JSON converter. Its confirm callback belongs
+     * to the ResponsePublisher.
      */
     @Bean
     public RabbitTemplate validationTemplate() {
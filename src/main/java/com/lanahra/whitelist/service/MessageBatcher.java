@@ -0,0 +1,228 @@
+package com.lanahra.whitelist.service;
+
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MessageBatcher
+ * Accumulate the messages consumed from each channel into batches, a batch
+ * is flushed once it is full or once its oldest message has waited for the
+ * max wait, then it is processed as a whole and all of its messages are
+ * acknowledged at once, with a single cumulative acknowledgement.
+ *
+ * A batch may also be processed with one result per message, then if any
+ * message failed, every message of the batch is settled on its own, so only
+ * the failed ones are requeued.
+ *
+ * Cumulative acknowledgements cover every earlier message of the channel,
+ * so batches of a channel are always settled in the order they were
+ * flushed, even if they are processed concurrently. The prefetch count of
+ * the channel must be at least the batch size.
+ */
+public class MessageBatcher<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageBatcher.class);
+
+    private final int size;
+
+    private final long maxWait;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Processor<T> processor;
+
+    private final Map<Channel, Batch> batches = new ConcurrentHashMap<>();
+
+    /**
+     * @param processor completes once the whole batch is processed
+     */
+    public MessageBatcher(int size, long maxWait, ScheduledExecutorService scheduler,
+            Function<List<T>, CompletableFuture<?>> processor) {
+        this(size, maxWait, scheduler, (Processor<T>) batch ->
+            Collections.nCopies(batch.size(), processor.apply(batch)));
+    }
+
+    private MessageBatcher(int size, long maxWait, ScheduledExecutorService scheduler, Processor<T> processor) {
+        this.size = size;
+        this.maxWait = maxWait;
+        this.scheduler = scheduler;
+        this.processor = processor;
+    }
+
+    /**
+     * @param processor returns one future per message of the batch, in
+     *     order, each completed once its message is processed
+     */
+    public static <T> MessageBatcher<T> perMessage(int size, long maxWait, ScheduledExecutorService scheduler,
+            Processor<T> processor) {
+        return new MessageBatcher<>(size, maxWait, scheduler, processor);
+    }
+
+    /**
+     * Add message consumed from channel to the current batch of the channel
+     */
+    public void add(Channel channel, long deliveryTag, T message) {
+        batches.computeIfAbsent(channel, this::open).add(deliveryTag, message);
+    }
+
+    private Batch open(Channel channel) {
+        channel.addShutdownListener(cause -> batches.remove(channel));
+        return new Batch(channel);
+    }
+
+    /**
+     * Process a batch of messages, with one result per message
+     */
+    @FunctionalInterface
+    public interface Processor<T> {
+
+        List<? extends CompletableFuture<?>> process(List<T> batch);
+    }
+
+    /**
+     * Current batch of a single channel
+     */
+    private final class Batch {
+
+        private final Channel channel;
+
+        private List<T> messages = new ArrayList<>();
+
+        private List<Long> deliveryTags = new ArrayList<>();
+
+        private ScheduledFuture<?> timeout;
+
+        private CompletableFuture<Void> settled = CompletableFuture.completedFuture(null);
+
+        Batch(Channel channel) {
+            this.channel = channel;
+        }
+
+        void add(long deliveryTag, T message) {
+            boolean full;
+
+            synchronized (this) {
+                messages.add(message);
+                deliveryTags.add(deliveryTag);
+                full = messages.size() >= size;
+
+                if (!full && messages.size() == 1) {
+                    timeout = scheduler.schedule(this::flush, maxWait, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            if (full) {
+                flush();
+            }
+        }
+
+        /**
+         * Swap the current batch for an empty one and process it outside of
+         * the lock, its settlement is chained after the previous batch
+         */
+        void flush() {
+            List<T> flushed;
+            CompletableFuture<List<Throwable>> outcome = new CompletableFuture<>();
+
+            synchronized (this) {
+                if (messages.isEmpty()) {
+                    return;
+                }
+
+                if (timeout != null) {
+                    timeout.cancel(false);
+                    timeout = null;
+                }
+
+                flushed = messages;
+                List<Long> flushedTags = deliveryTags;
+                messages = new ArrayList<>();
+                deliveryTags = new ArrayList<>();
+
+                settled = settled.thenCombine(outcome, (ignored, failures) -> {
+                    settle(flushedTags, failures);
+                    return null;
+                });
+            }
+
+            try {
+                List<? extends CompletableFuture<?>> results = processor.process(flushed);
+
+                CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                    .whenComplete((ignored, t) -> outcome.complete(failures(results)));
+            } catch (RuntimeException e) {
+                outcome.complete(Collections.nCopies(flushed.size(), e));
+            }
+        }
+
+        /**
+         * Acknowledge every message up to the last one of the batch if they
+         * were all processed, or requeue them if they all failed, otherwise
+         * settle each message on its own, requeueing the failed ones
+         */
+        private void settle(List<Long> deliveryTags, List<Throwable> failures) {
+            long failed = failures.stream().filter(t -> t != null).count();
+
+            try {
+                if (failed == 0) {
+                    channel.basicAck(deliveryTags.get(deliveryTags.size() - 1), true);
+                    return;
+                }
+
+                LOGGER.error("{} of batch of {} Failed: {}", failed, deliveryTags.size(),
+                    failures.stream().filter(t -> t != null).findFirst().get().getMessage());
+
+                if (failed == deliveryTags.size()) {
+                    channel.basicNack(deliveryTags.get(deliveryTags.size() - 1), true, true);
+                    return;
+                }
+
+                for (int i = 0; i < deliveryTags.size(); i++) {
+                    if (failures.get(i) == null) {
+                        channel.basicAck(deliveryTags.get(i), false);
+                    } else {
+                        channel.basicNack(deliveryTags.get(i), false, true);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Acknowledgement Failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return failure of each completed result, null if it succeeded
+     */
+    private static List<Throwable> failures(List<? extends CompletableFuture<?>> results) {
+        List<Throwable> failures = new ArrayList<>(results.size());
+
+        for (CompletableFuture<?> result : results) {
+            Throwable failure = null;
+
+            try {
+                result.join();
+            } catch (CompletionException e) {
+                failure = e.getCause() == null ? e : e.getCause();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            failures.add(failure);
+        }
+
+        return failures;
+    }
+}
@@ -0,0 +1,358 @@
+package com.lanahra.whitelist.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * ReactiveValidationPipeline
+ * Alternative to the validation listener, enabled by
+ * $VALIDATION_PIPELINE=reactive, which then keeps the listener container
+ * stopped. Validation requests are consumed as a stream from a channel of
+ * their own, deserialized, validated and matched on $VALIDATION_MATCH_THREADS
+ * threads, one per core by default, never on the consumer thread of the
+ * channel, and their responses published through the ResponsePublisher.
+ * Consumption starts once the context is refreshed, along with the listener
+ * containers, and stops before them: the consumer is cancelled first, then
+ * requests in flight are given up to $VALIDATION_PIPELINE_SHUTDOWN_TIMEOUT
+ * milliseconds to be settled before the channel is closed.
+ *
+ * A request is acknowledged once the broker confirms its response, so the
+ * prefetch count of the channel, $VALIDATION_PREFETCH, bounds the requests
+ * in flight, and the stream never holds more than that: thousands of
+ * requests may be in flight on a handful of threads, while the broker holds
+ * back the rest. Invalid requests are rejected, failed matches are rejected
+ * and failed publishes are requeued, as in the listener.
+ *
+ * Each subscription consumes on a connection of its own, outside of the
+ * channel cache of the connection factory. If its channel is closed, the
+ * stream is subscribed again on a new connection after
+ * $VALIDATION_PIPELINE_RETRY_DELAY milliseconds, requests in flight on the
+ * closed channel are redelivered by the broker. Sharding is not supported,
+ * requests are never forwarded.
+ *
+ * @see Listener
+ * @see ResponsePublisher
+ */
+@Component
+@ConditionalOnProperty(name = "VALIDATION_PIPELINE", havingValue = "reactive")
+public class ReactiveValidationPipeline implements SmartLifecycle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveValidationPipeline.class);
+
+    @Autowired
+    private AbstractConnectionFactory rabbitConnectionFactory;
+
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private ResponsePublisher responsePublisher;
+
+    @Autowired
+    private ServiceMetrics metrics;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Value("${VALIDATION_QUEUE}")
+    private String validationQueueName;
+
+    @Value("${VALIDATION_PREFETCH:250}")
+    private int prefetch = 250;
+
+    @Value("${VALIDATION_MATCH_THREADS:0}")
+    private int matchThreads;
+
+    @Value("${VALIDATION_PIPELINE_RETRY_DELAY:5000}")
+    private long retryDelay = 5000;
+
+    @Value("${VALIDATION_PIPELINE_SHUTDOWN_TIMEOUT:10000}")
+    private long shutdownTimeout = 10000;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile boolean stopping;
+
+    private volatile Runnable cancelConsumer;
+
+    private Scheduler matching;
+
+    private volatile Disposable subscription;
+
+    @Override
+    public synchronized void start() {
+        if (subscription != null) {
+            return;
+        }
+
+        stopping = false;
+
+        if (shardRouter.isSharded()) {
+            throw new IllegalStateException("Reactive validation pipeline does not support sharding");
+        }
+
+        int threads = matchThreads > 0 ? matchThreads : Runtime.getRuntime().availableProcessors();
+        matching = Schedulers.newParallel("match", threads);
+
+        subscription = deliveries()
+            .retryWhen(errors -> errors
+                .doOnNext(e -> LOGGER.warn("Validation channel closed, resubscribe: {}", e.getMessage()))
+                .delayElements(Duration.ofMillis(retryDelay)))
+            .doOnNext(delivery -> inFlight.incrementAndGet())
+            .flatMap(delivery -> process(delivery).doFinally(signal -> inFlight.decrementAndGet()), prefetch)
+            .subscribe();
+    }
+
+    /**
+     * Cancel the consumer, wait for the requests in flight up to the
+     * shutdown timeout, then close the channel
+     */
+    @Override
+    public synchronized void stop() {
+        if (subscription == null) {
+            return;
+        }
+
+        stopping = true;
+        Runnable cancel = cancelConsumer;
+
+        if (cancel != null) {
+            cancel.run();
+        }
+
+        awaitInFlight();
+
+        subscription.dispose();
+        subscription = null;
+        matching.dispose();
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        Thread stopper = new Thread(() -> {
+            try {
+                stop();
+            } finally {
+                callback.run();
+            }
+        }, "validation-pipeline-stop");
+
+        stopper.start();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return subscription != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    /**
+     * Same phase as the listener containers
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void awaitInFlight() {
+        long deadline = System.currentTimeMillis() + shutdownTimeout;
+
+        try {
+            while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (inFlight.get() > 0) {
+            LOGGER.warn("Stop with {} requests in flight, redelivered by the broker", inFlight.get());
+        }
+    }
+
+    /**
+     * @return stream of deliveries of the validation queue, from a new
+     *     connection on each subscription, erroring once the channel is
+     *     closed, or completed right away once stopping
+     */
+    Flux<Delivery> deliveries() {
+        return Flux.create(sink -> {
+            if (stopping) {
+                sink.complete();
+                return;
+            }
+
+            Connection connection = null;
+
+            try {
+                connection = rabbitConnectionFactory.getRabbitConnectionFactory().newConnection("validation-pipeline");
+                Channel channel = connection.createChannel();
+                channel.basicQos(prefetch);
+
+                String consumerTag = channel.basicConsume(validationQueueName, false, new DefaultConsumer(channel) {
+                    @Override
+                    public void handleDelivery(String consumerTag, Envelope envelope,
+                            AMQP.BasicProperties properties, byte[] body) {
+                        sink.next(new Delivery(channel, envelope.getDeliveryTag(), body, properties.getTimestamp()));
+                    }
+
+                    @Override
+                    public void handleCancel(String consumerTag) {
+                        if (!sink.isCancelled()) {
+                            sink.error(new AmqpException("Consumer " + consumerTag + " cancelled by the broker"));
+                        }
+                    }
+
+                    @Override
+                    public void handleShutdownSignal(String consumerTag, ShutdownSignalException signal) {
+                        if (!sink.isCancelled()) {
+                            sink.error(signal);
+                        }
+                    }
+                });
+
+                Connection opened = connection;
+                cancelConsumer = () -> cancel(channel, consumerTag);
+                sink.onDispose(() -> close(opened));
+            } catch (IOException | TimeoutException | RuntimeException e) {
+                if (connection != null) {
+                    close(connection);
+                }
+
+                sink.error(e);
+            }
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    /**
+     * @return completed once the request is settled, never in error,
+     *     processed on the matching scheduler
+     */
+    Mono<Void> process(Delivery delivery) {
+        return Mono.defer(() -> validate(delivery))
+            .subscribeOn(matching);
+    }
+
+    private Mono<Void> validate(Delivery delivery) {
+        ValidationRequest request;
+
+        try {
+            request = objectMapper.readValue(delivery.body, ValidationRequest.class);
+        } catch (IOException e) {
+            LOGGER.warn("Reject message {}: {}", delivery.deliveryTag, e.getMessage());
+            settle(delivery, false, false);
+            return Mono.empty();
+        }
+
+        if (!validator.validate(request).isEmpty()) {
+            LOGGER.warn("Reject message {}: invalid {}", delivery.deliveryTag, request);
+            settle(delivery, false, false);
+            return Mono.empty();
+        }
+
+        metrics.recordLag("validation", delivery.timestamp);
+
+        return Mono.defer(() -> Mono.fromFuture(service.processExpressionValidation(request)))
+            .onErrorResume(t -> {
+                LOGGER.error("Validation Failed: {}", t.getMessage());
+                settle(delivery, false, false);
+                return Mono.empty();
+            })
+            .flatMap(response -> Mono.fromFuture(responsePublisher.publish(response))
+                .doOnSuccess(confirmed -> settle(delivery, true, false))
+                .onErrorResume(t -> {
+                    LOGGER.error("Send Failed: {}", t.getMessage());
+                    settle(delivery, false, true);
+                    return Mono.empty();
+                }));
+    }
+
+    private static void settle(Delivery delivery, boolean ack, boolean requeue) {
+        try {
+            if (ack) {
+                delivery.channel.basicAck(delivery.deliveryTag, false);
+            } else {
+                delivery.channel.basicReject(delivery.deliveryTag, requeue);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Acknowledgement Failed: {}", e.getMessage());
+        }
+    }
+
+    private static void cancel(Channel channel, String consumerTag) {
+        try {
+            if (channel.isOpen()) {
+                channel.basicCancel(consumerTag);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Validation consumer not cancelled: {}", e.getMessage());
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            if (connection.isOpen()) {
+                connection.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Validation connection not closed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Message consumed from the validation queue, along with its channel
+     */
+    static final class Delivery {
+
+        private final Channel channel;
+
+        private final long deliveryTag;
+
+        private final byte[] body;
+
+        private final Date timestamp;
+
+        Delivery(Channel channel, long deliveryTag, byte[] body, Date timestamp) {
+            this.channel = channel;
+            this.deliveryTag = deliveryTag;
+            this.body = body;
+            this.timestamp = timestamp;
+        }
+    }
+}
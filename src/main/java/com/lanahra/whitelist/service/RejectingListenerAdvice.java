@@ -0,0 +1,43 @@
+package com.lanahra.whitelist.service;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+
+/**
+ * RejectingListenerAdvice
+ * Listeners with manual acknowledgement must settle every message
+ * themselves, but a message that can not be converted or is not valid never
+ * reaches the listener method, and the container does not settle it either.
+ * Advise the listener invocation so such messages are rejected, instead of
+ * being left unacknowledged and holding a prefetch slot forever.
+ */
+public class RejectingListenerAdvice implements MethodInterceptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RejectingListenerAdvice.class);
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        try {
+            return invocation.proceed();
+        } catch (Exception e) {
+            Object[] arguments = invocation.getArguments();
+
+            if (arguments.length < 2
+                    || !(arguments[0] instanceof Channel)
+                    || !(arguments[1] instanceof Message)) {
+                throw e;
+            }
+
+            Channel channel = (Channel) arguments[0];
+            long deliveryTag = ((Message) arguments[1]).getMessageProperties().getDeliveryTag();
+
+            LOGGER.warn("Reject message {}: {}", deliveryTag, e.getMessage());
+            channel.basicReject(deliveryTag, false);
+            return null;
+        }
+    }
+}
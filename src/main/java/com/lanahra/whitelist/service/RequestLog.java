@@ -0,0 +1,94 @@
+package com.lanahra.whitelist.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.jmx.annotation.JmxEndpoint;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * RequestLog
+ * Sampled log of the requests going through the Service, a request is only
+ * logged if its client is traced or if it is picked by the sample rate, so
+ * untraced requests never build a log message. Tracing does not depend on
+ * the level of any logger, a traced request is logged at INFO.
+ *
+ * Traced clients and the sample rate, initially $REQUEST_LOG_SAMPLE_RATE,
+ * are changed at runtime through the configure operation of the requestlog
+ * actuator endpoint, only exposed over JMX, as
+ * org.springframework.boot:type=Endpoint,name=Requestlog, never on the web
+ * port:
+ *
+ * configure(sampleRate: <double>, client: <string>, traced: <boolean>)
+ */
+@Component
+@JmxEndpoint(id = "requestlog")
+public class RequestLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestLog.class);
+
+    private final Set<String> tracedClients = ConcurrentHashMap.newKeySet();
+
+    @Value("${REQUEST_LOG_SAMPLE_RATE:0}")
+    private volatile double sampleRate;
+
+    /**
+     * @return true if requests of the client, null for the global
+     *     whitelist, must be logged
+     */
+    public boolean isTraced(String client) {
+        if (client != null && tracedClients.contains(client)) {
+            return true;
+        }
+
+        double sampleRate = this.sampleRate;
+
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    public void log(String format, Object argument) {
+        LOGGER.info(format, argument);
+    }
+
+    @ReadOperation
+    public Map<String, Object> state() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("sampleRate", sampleRate);
+        state.put("tracedClients", tracedClients);
+        return state;
+    }
+
+    @WriteOperation
+    public void configure(@Nullable Double sampleRate, @Nullable String client, @Nullable Boolean traced) {
+        if (sampleRate != null) {
+            setSampleRate(sampleRate);
+        }
+
+        if (client != null) {
+            setTraced(client, traced == null || traced);
+        }
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        LOGGER.info("Sample rate set to {}", this.sampleRate);
+    }
+
+    public void setTraced(String client, boolean traced) {
+        if (traced) {
+            tracedClients.add(client);
+        } else {
+            tracedClients.remove(client);
+        }
+
+        LOGGER.info("Tracing of client {} set to {}", client, traced);
+    }
+}
@@ -0,0 +1,246 @@
+package com.lanahra.whitelist.service;
+
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.CorrelationData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * ResponsePublisher
+ * Publish validation responses without waiting for the broker. Each publish
+ * borrows a channel from the channel cache of the connection factory and
+ * gives it back right away, while the broker confirms it asynchronously, so
+ * up to $RESPONSE_MAX_IN_FLIGHT responses are awaiting their confirm at any
+ * time. Beyond that, responses wait in order for a response in flight to
+ * complete, without holding the caller's thread. Their number is bounded by
+ * the requests in flight, the prefetch count of the validation consumers.
+ *
+ * Confirms are correlated to their response by the correlation id of the
+ * response and a sequence number, as correlation ids are only unique per
+ * client.
+ *
+ * A nacked response, or one whose channel closed before it was confirmed,
+ * is published again up to $RESPONSE_MAX_RETRIES times, each retry delayed
+ * by $RESPONSE_RETRY_DELAY milliseconds more than the previous one. Retries
+ * and waiting responses are published from a thread of their own.
+ *
+ * If $RESPONSE_CONFIRMS is false, a response is complete once it is handed
+ * to the channel.
+ */
+@Component
+public class ResponsePublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponsePublisher.class);
+
+    @Autowired
+    private RabbitTemplate validationTemplate;
+
+    @Autowired
+    private ServiceMetrics metrics;
+
+    @Value("${RESPONSE_EXCHANGE}")
+    private String responseExchange;
+
+    @Value("${RESPONSE_ROUTING_KEY}")
+    private String responseRoutingKey;
+
+    @Value("${RESPONSE_CONFIRMS:true}")
+    private boolean confirms = true;
+
+    @Value("${RESPONSE_MAX_IN_FLIGHT:1000}")
+    private int maxInFlight = 1000;
+
+    @Value("${RESPONSE_MAX_RETRIES:3}")
+    private int maxRetries = 3;
+
+    @Value("${RESPONSE_RETRY_DELAY:100}")
+    private long retryDelay = 100;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, Publish> pending = new ConcurrentHashMap<>();
+
+    private final Queue<Publish> waiting = new ConcurrentLinkedQueue<>();
+
+    private Semaphore inFlight;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void initialize() {
+        inFlight = new Semaphore(maxInFlight);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("response-"));
+
+        if (confirms) {
+            validationTemplate.setConfirmCallback(this::confirm);
+        }
+    }
+
+    /**
+     * Publish the response, never waiting for the broker
+     *
+     * @return future completed once the broker confirms the response
+     * @return future completed exceptionally once every retry failed
+     */
+    public CompletableFuture<Void> publish(ValidationResponse response) {
+        Publish publish = new Publish(response, metrics.start());
+        waiting.add(publish);
+        drain();
+        return publish.future;
+    }
+
+    /**
+     * Fail every response still waiting
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+
+        for (Publish publish = waiting.poll(); publish != null; publish = waiting.poll()) {
+            publish.future.completeExceptionally(new AmqpException("Response "
+                + publish.response.getCorrelationId() + " not published: shutting down"));
+        }
+    }
+
+    /**
+     * @return number of responses awaiting their confirm
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of responses waiting for a response in flight to
+     *     complete
+     */
+    public int waiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Send waiting responses, in order, as long as there is room in flight
+     */
+    private void drain() {
+        while (!waiting.isEmpty() && inFlight.tryAcquire()) {
+            Publish publish = waiting.poll();
+
+            if (publish == null) {
+                inFlight.release();
+                continue;
+            }
+
+            send(publish);
+        }
+    }
+
+    private void send(Publish publish) {
+        if (!confirms) {
+            try {
+                validationTemplate.convertAndSend(publish.response);
+                complete(publish, null);
+            } catch (AmqpException e) {
+                complete(publish, e);
+            }
+
+            return;
+        }
+
+        CorrelationData correlation = new CorrelationData(
+            publish.response.getCorrelationId() + ":" + sequence.incrementAndGet());
+
+        pending.put(correlation.getId(), publish);
+
+        try {
+            validationTemplate.convertAndSend(responseExchange, responseRoutingKey, publish.response, correlation);
+        } catch (AmqpException e) {
+            pending.remove(correlation.getId());
+            retry(publish, e.getMessage());
+        }
+    }
+
+    /**
+     * Confirm callback, called on the connection thread, so retries are
+     * published from the scheduler
+     */
+    void confirm(CorrelationData correlation, boolean ack, String cause) {
+        Publish publish = correlation == null ? null : pending.remove(correlation.getId());
+
+        if (publish == null) {
+            return;
+        }
+
+        if (ack) {
+            complete(publish, null);
+        } else {
+            retry(publish, cause);
+        }
+    }
+
+    private void retry(Publish publish, String cause) {
+        if (publish.attempts >= maxRetries) {
+            complete(publish, new AmqpException("Response " + publish.response.getCorrelationId()
+                + " not confirmed: " + cause));
+            return;
+        }
+
+        publish.attempts++;
+        LOGGER.warn("Response {} not confirmed, retry {}: {}",
+            publish.response.getCorrelationId(), publish.attempts, cause);
+
+        scheduler.schedule(() -> send(publish),
+            retryDelay * publish.attempts, TimeUnit.MILLISECONDS);
+    }
+
+    private void complete(Publish publish, Throwable t) {
+        inFlight.release();
+
+        if (!waiting.isEmpty()) {
+            scheduler.execute(this::drain);
+        }
+
+        if (t != null) {
+            publish.future.completeExceptionally(t);
+            return;
+        }
+
+        metrics.recordPublish(publish.sample);
+        publish.future.complete(null);
+    }
+
+    /**
+     * Response in flight, along with its attempts so far
+     */
+    private static final class Publish {
+
+        private final ValidationResponse response;
+
+        private final Timer.Sample sample;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private int attempts;
+
+        Publish(ValidationResponse response, Timer.Sample sample) {
+            this.response = response;
+            this.sample = sample;
+        }
+    }
+}
@@ -1,25 +1,30 @@
 package com.lanahra.whitelist.service;
 
+import com.lanahra.whitelist.entity.BulkExpression;
 import com.lanahra.whitelist.entity.Expression;
 import com.lanahra.whitelist.entity.ClientExpression;
 import com.lanahra.whitelist.entity.ClientWhitelistRepository;
+import com.lanahra.whitelist.entity.ExpressionBatchRepository;
+import com.lanahra.whitelist.entity.ExpressionScanRepository;
 import com.lanahra.whitelist.entity.GlobalExpression;
 import com.lanahra.whitelist.entity.GlobalWhitelistRepository;
+import com.lanahra.whitelist.matcher.Whitelist;
+import io.micrometer.core.instrument.Timer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataIntegrityViolationException;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
 /**
@@ -32,7 +37,7 @@ public class Service {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Service.class);
 
-    private static final int PAGE_SIZE = 100000;
+    private static final int REPLAY_OVERLAP = 1000;
 
     @Autowired
     private GlobalWhitelistRepository globalWhitelistRepository;
@@ -40,16 +45,130 @@ public class Service {
     @Autowired
     private ClientWhitelistRepository clientWhitelistRepository;
 
+    @Autowired
+    private ExpressionBatchRepository expressionBatchRepository;
+
+    @Autowired
+    private ExpressionScanRepository expressionScanRepository;
+
+    @Autowired
+    private Whitelist whitelist;
+
+    @Autowired
+    private ServiceMetrics metrics;
+
+    @Autowired
+    private RequestLog requestLog;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ChangePropagation changePropagation;
+
+    @Autowired
+    private WhitelistSnapshot snapshot;
+
+    private volatile int globalWatermark;
+
+    private volatile int clientWatermark;
+
+    /**
+     * Load Whitelist
+     * Restore the snapshot, if any, then scan both repositories for the
+     * Expressions persisted since, otherwise scan both of them entirely.
+     * Loaded once at startup, before any listener is started, and every
+     * Expression is kept resident in the Whitelist. When sharded, only the
+     * clients owned by this instance are kept.
+     */
+    @PostConstruct
+    public void loadWhitelist() {
+        Timer.Sample sample = metrics.start();
+
+        WhitelistSnapshot.Watermark restored = snapshot.restore(this::isCurrent);
+
+        if (restored != null) {
+            globalWatermark = restored.getGlobal();
+            clientWatermark = restored.getClient();
+            replay();
+        } else {
+            globalWatermark = expressionScanRepository.scanGlobal(0, this::addOwned);
+            clientWatermark = expressionScanRepository.scanClients(0, this::addOwned);
+            snapshot.save(new WhitelistSnapshot.Watermark(globalWatermark, clientWatermark));
+        }
+
+        long elapsed = metrics.recordLoad(sample);
+
+        LOGGER.info("Whitelist loaded in {} ms{}", TimeUnit.NANOSECONDS.toMillis(elapsed),
+            restored == null ? "" : " from snapshot");
+    }
+
+    /**
+     * Write the snapshot on shutdown, once every listener is stopped, with
+     * the Expressions persisted by other instances replayed first. If the
+     * repositories are unreachable, the snapshot is still written up to the
+     * previous watermark.
+     */
+    @PreDestroy
+    public void saveSnapshot() {
+        if (!snapshot.isEnabled()) {
+            return;
+        }
+
+        try {
+            replay();
+        } catch (DataAccessException e) {
+            LOGGER.error("Replay Failed: {}", e.getMessage());
+        }
+
+        snapshot.save(new WhitelistSnapshot.Watermark(globalWatermark, clientWatermark));
+    }
+
+    /**
+     * Scan the Expressions persisted after the watermarks, starting
+     * REPLAY_OVERLAP ids earlier, since ids are allocated before commit and
+     * a smaller id may be committed after a greater one
+     */
+    private void replay() {
+        int global = expressionScanRepository.scanGlobal(Math.max(0, globalWatermark - REPLAY_OVERLAP), this::addOwned);
+        globalWatermark = Math.max(globalWatermark, global);
+
+        int client = expressionScanRepository.scanClients(Math.max(0, clientWatermark - REPLAY_OVERLAP), this::addOwned);
+        clientWatermark = Math.max(clientWatermark, client);
+    }
+
+    /**
+     * Rows are never deleted, so the row at a watermark is missing only if
+     * the repositories were recreated since the snapshot
+     */
+    private boolean isCurrent(WhitelistSnapshot.Watermark watermark) {
+        return (watermark.getGlobal() == 0 || expressionScanRepository.existsGlobal(watermark.getGlobal()))
+            && (watermark.getClient() == 0 || expressionScanRepository.existsClient(watermark.getClient()));
+    }
+
+    /**
+     * Add the regular expressions of a whitelist kept by this instance
+     */
+    private void addOwned(String client, List<String> regexes) {
+        if (shardRouter.owns(client)) {
+            whitelist.addAll(client, regexes);
+        }
+    }
+
     /**
      * Process Expression insertion in the repository
      * If client is null, then Expression is persisted in the Global Whitelist,
-     * else, it is persisted in the Client Whitelist.
+     * else, it is persisted in the Client Whitelist. Once persisted, the
+     * Expression is also added to the resident Whitelist and propagated to
+     * the other instances.
      *
      * @return Expression if successfuly persisted
      * @return null otherwise
      */
     public Expression processExpressionInsertion(Expression expression) {
-        LOGGER.info("Process " + expression.toString());
+        if (requestLog.isTraced(expression.getClient())) {
+            requestLog.log("Process {}", expression);
+        }
 
         Expression save = null;
 
@@ -60,117 +179,211 @@ public class Service {
                 save = clientWhitelistRepository.save(new ClientExpression(expression));
             }
         } catch (DataIntegrityViolationException e) {
-            LOGGER.info("Create Failed: " + e.getMessage());
+            LOGGER.debug("Create Failed: {}", e.getMessage());
+        }
+
+        if (save != null) {
+            whitelist.add(save);
+            changePropagation.publish(save.getClient(), Collections.singletonList(save.getRegex()));
+            metrics.recordInsertions(1, 0);
+        } else {
+            metrics.recordInsertions(0, 1);
         }
 
         return save;
     }
 
     /**
-     * Process Expression validation
-     * Given a request with a client and an URL, search through the repository
-     * for a regular expression that matches the URL
+     * Process a batch of Expression insertions in the repository
+     * Duplicates within the batch are removed before anything is written,
+     * then the whole batch is persisted in a single transaction, ignoring
+     * Expressions that are already persisted. Once committed, the inserted
+     * Expressions are merged into the resident Whitelist and propagated to
+     * the other instances, once per scope.
      *
-     * @return ValidationResponse
-     *     match true if found a matching regular expression, false otherwise
-     *     regex regular expression if found, null otherwise
-     *     correlationId id for correlation with ValidationRequest
+     * @return Expressions actually inserted
      */
-    public ValidationResponse processExpressionValidation(ValidationRequest request) {
-        LOGGER.info("Process " + request.toString());
+    public List<Expression> processExpressionInsertions(List<Expression> expressions) {
+        LOGGER.debug("Process batch of {} expressions", expressions.size());
 
-        long start = System.currentTimeMillis();
+        Map<List<String>, Expression> unique = new LinkedHashMap<>();
 
-        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (Expression expression : expressions) {
+            unique.putIfAbsent(Arrays.asList(expression.getClient(), expression.getRegex()), expression);
+        }
 
-        String client = request.getClient();
-        String url = request.getUrl();
+        List<Expression> inserted = expressionBatchRepository.insertIgnore(new ArrayList<>(unique.values()));
 
-        Page<Expression> expressions;
-        Pageable pageable = PageRequest.of(0, PAGE_SIZE);
+        Map<String, List<String>> scopes = new LinkedHashMap<>();
 
-        do {
-            expressions = globalWhitelistRepository.findAll(pageable);
-            futures.add(matchExpressions(url, expressions));
-            pageable = pageable.next();
-        } while (expressions.hasNext());
+        for (Expression expression : inserted) {
+            scopes.computeIfAbsent(expression.getClient(), c -> new ArrayList<>()).add(expression.getRegex());
+        }
 
-        pageable = pageable.first();
-        do {
-            expressions = clientWhitelistRepository.findByClient(client, pageable);
-            futures.add(matchExpressions(url, expressions));
-            pageable = pageable.next();
-        } while (expressions.hasNext());
+        scopes.forEach((client, regexes) -> {
+            whitelist.addAll(client, regexes);
+            changePropagation.publish(client, regexes);
+        });
+        metrics.recordInsertions(inserted.size(), expressions.size() - inserted.size());
 
-        ValidationResponse response = new ValidationResponse();
-        response.setCorrelationId(request.getCorrelationId());
+        LOGGER.debug("Inserted {} of {} expressions", inserted.size(), expressions.size());
 
-        anyNotNull(futures)
-            .thenAccept(regex -> {
-                response.setMatch(true);
-                response.setRegex(regex);
-            })
-            .whenComplete((ignored, t) -> {
-                if (t != null) {
-                    response.setMatch(false);
-                }
-            });
+        return inserted;
+    }
 
-        LOGGER.info("Elapsed time: " + (System.currentTimeMillis() - start));
-        LOGGER.info("Return " + response.toString());
+    /**
+     * Process a bulk import of Expressions of a single whitelist
+     * The whole import is persisted and merged into the resident Whitelist
+     * as a single batch.
+     *
+     * @return Expressions actually inserted
+     */
+    public List<Expression> processBulkExpressionInsertion(BulkExpression bulkExpression) {
+        if (requestLog.isTraced(bulkExpression.getClient())) {
+            requestLog.log("Process {}", bulkExpression);
+        }
 
-        return response;
+        return processExpressionInsertions(bulkExpression.toExpressions());
     }
 
     /**
-     * Match URL
-     * Search for an Expression that matches the URL, this is a single
-     * concurrent unit of processing, looking through a single Page of
-     * Expressions from either the Global or Client Whitelist, returns
-     * CompletableFuture that can be resolved later.
+     * Process a ChangeEvent of another instance
+     * The Expressions are already persisted, they are only added to the
+     * resident Whitelist, if it is kept by this instance. If events of the
+     * whitelist were missed, the whole whitelist is resynced from its
+     * repository instead, which also covers the event itself.
      *
-     * @return CompletableFuture with matching regular expression if found
-     * @return CompletableFuture with null otherwise.
+     * @return number of Expressions actually added
      */
-    @Async
-    private CompletableFuture<String> matchExpressions(String url, Page<Expression> expressions) {
-        String response = null;
+    public int processChangeEvent(ChangeEvent event) {
+        if (!shardRouter.owns(event.getClient())) {
+            return 0;
+        }
 
-        for (Expression expression : expressions) {
-            String regex = expression.getRegex();
+        ChangePropagation.Delivery delivery = changePropagation.receive(event);
+        metrics.recordChange(delivery);
 
-            if (Pattern.matches(regex, url)) {
-                response = regex;
-                break;
-            }
+        switch (delivery) {
+            case OWN:
+                return 0;
+            case GAP:
+                LOGGER.warn("Missed changes before {}, resync", event);
+                return resync(event.getClient());
+            default:
+                return whitelist.addAll(event.getClient(), event.getRegexes());
+        }
+    }
+
+    /**
+     * Add every Expression of the global whitelist, if client is null, or of
+     * the client whitelist otherwise, from its repository
+     */
+    private int resync(String client) {
+        int size = client == null ? whitelist.globalSize() : whitelist.clientSize(client);
+
+        if (client == null) {
+            expressionScanRepository.scanGlobal(0, whitelist::addAll);
+        } else {
+            expressionScanRepository.scanClient(client, 0, whitelist::addAll);
+        }
+
+        return (client == null ? whitelist.globalSize() : whitelist.clientSize(client)) - size;
+    }
+
+    /**
+     * Process Expression validation
+     * Given a request with a client and an URL, search through the resident
+     * Whitelist for a regular expression that matches the URL, the response
+     * is completed once the first match is found or every expression has
+     * been verified
+     *
+     * @return CompletableFuture with ValidationResponse
+     *     match true if found a matching regular expression, false otherwise
+     *     regex regular expression if found, null otherwise
+     *     correlationId id for correlation with ValidationRequest
+     */
+    public CompletableFuture<ValidationResponse> processExpressionValidation(ValidationRequest request) {
+        boolean traced = requestLog.isTraced(request.getClient());
+
+        if (traced) {
+            requestLog.log("Process {}", request);
         }
 
-        return CompletableFuture.completedFuture(response);
+        Timer.Sample sample = metrics.start();
+
+        return whitelist.matchAsync(request.getClient(), request.getUrl())
+            .thenApply(regex -> {
+                ValidationResponse response = new ValidationResponse();
+                response.setCorrelationId(request.getCorrelationId());
+                response.setMatch(regex != null);
+                response.setRegex(regex);
+
+                metrics.recordMatch(sample, regex != null);
+
+                if (traced) {
+                    requestLog.log("Return {}", response);
+                }
+
+                return response;
+            });
     }
 
     /**
-     * Complete any not null future
-     * Given a List of futures, returns the first one that is not null, in
-     * other words, returns the first CompletableFuture with a matching regular
-     * expression.
+     * Process a batch of Expression validations
+     * Requests are grouped by client, so each client whitelist is looked up
+     * once for the whole batch
+     *
+     * @return CompletableFuture with the ValidationResponse of each request,
+     *     in the order of the requests
      */
-    private static <T> CompletableFuture<T> anyNotNull(List<? extends CompletionStage<? extends T>> futures) {
-        CompletableFuture<T> result = new CompletableFuture<>();
+    public CompletableFuture<List<ValidationResponse>> processExpressionValidations(List<ValidationRequest> requests) {
+        LOGGER.debug("Process batch of {} requests", requests.size());
+
+        Timer.Sample sample = metrics.start();
+
+        Map<String, List<Integer>> clients = new LinkedHashMap<>();
 
-        Consumer<T> whenTrue = v -> {
-            if (v != null) {
-                result.complete(v);
+        for (int i = 0; i < requests.size(); i++) {
+            clients.computeIfAbsent(requests.get(i).getClient(), c -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<String>> matches = new ArrayList<>(requests.size());
+
+        for (int i = 0; i < requests.size(); i++) {
+            matches.add(null);
+        }
+
+        clients.forEach((client, indexes) -> {
+            List<String> urls = new ArrayList<>(indexes.size());
+
+            for (int i : indexes) {
+                urls.add(requests.get(i).getUrl());
+            }
+
+            List<CompletableFuture<String>> clientMatches = whitelist.matchAll(client, urls);
+
+            for (int i = 0; i < indexes.size(); i++) {
+                matches.set(indexes.get(i), clientMatches.get(i));
             }
-        };
+        });
 
-        CompletableFuture.allOf(
-                futures.stream()
-                    .map(f -> f.thenAccept(whenTrue))
-                    .toArray(CompletableFuture<?>[]::new)
-        ).whenComplete((ignored, t) ->
-            result.completeExceptionally(t != null ? t : new NoSuchElementException())
-        );
+        return CompletableFuture.allOf(matches.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> {
+                List<ValidationResponse> responses = new ArrayList<>(requests.size());
 
-        return result;
+                for (int i = 0; i < requests.size(); i++) {
+                    String regex = matches.get(i).join();
+
+                    ValidationResponse response = new ValidationResponse();
+                    response.setCorrelationId(requests.get(i).getCorrelationId());
+                    response.setMatch(regex != null);
+                    response.setRegex(regex);
+                    responses.add(response);
+                }
+
+                metrics.recordBatchMatch(sample, responses);
+
+                return responses;
+            });
     }
 }
@@ -1,31 +1,74 @@
 package com.lanahra.whitelist.service;
 
-import java.util.concurrent.Executor;
+import com.lanahra.whitelist.matcher.MatchCache;
+import com.lanahra.whitelist.matcher.ParallelMatcher;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * ServiceConfiguration
- * Setup executor for concurrent processing in Service, set pool size to number
- * of cores available.
+ * Setup pool for parallel matching in the Whitelist, set parallelism to
+ * number of cores available. Parallel matching is enabled by
+ * $PARALLEL_MATCHING, validations with fewer candidate expressions than
+ * $PARALLEL_MATCHING_THRESHOLD are still matched in the listener thread.
+ * If $VIRTUAL_THREADS is set, matching runs on virtual threads instead, at
+ * most one per core at once.
+ *
+ * Setup cache of validation results, unless disabled by $VALIDATION_CACHE,
+ * bounded by $VALIDATION_CACHE_SIZE results of at most
+ * $VALIDATION_CACHE_TTL milliseconds.
  *
  * @see Service
+ * @see MatchCache
+ * @see ParallelMatcher
+ * @see VirtualThreads
  */
 @Configuration
-@EnableAsync
 public class ServiceConfiguration {
 
+    @Value("${PARALLEL_MATCHING_THRESHOLD:4096}")
+    private Integer parallelMatchingThreshold;
+
+    @Value("${VALIDATION_CACHE_SIZE:10000}")
+    private Integer validationCacheSize;
+
+    @Value("${VALIDATION_CACHE_TTL:60000}")
+    private Long validationCacheTtl;
+
+    @Value("${VIRTUAL_THREADS:false}")
+    private boolean virtualThreads;
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "PARALLEL_MATCHING", havingValue = "true")
+    public ExecutorService matchingPool() {
+        if (virtualThreads) {
+            return VirtualThreads.executor("match-");
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(cores);
+    }
+
     @Bean
-    public Executor asyncExecutor() {
+    @ConditionalOnProperty(name = "PARALLEL_MATCHING", havingValue = "true")
+    public ParallelMatcher parallelMatcher() {
         int cores = Runtime.getRuntime().availableProcessors();
 
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(cores);
-        executor.setMaxPoolSize(cores);
-        executor.setThreadNamePrefix("whitelist-");
-        executor.initialize();
-        return executor;
+        if (virtualThreads) {
+            return new ParallelMatcher(new BoundedExecutor(matchingPool(), cores), cores,
+                parallelMatchingThreshold);
+        }
+
+        return new ParallelMatcher(matchingPool(), cores, parallelMatchingThreshold);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "VALIDATION_CACHE", havingValue = "true", matchIfMissing = true)
+    public MatchCache matchCache() {
+        return new MatchCache(validationCacheSize, validationCacheTtl);
     }
 }
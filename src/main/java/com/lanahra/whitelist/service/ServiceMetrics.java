@@ -0,0 +1,146 @@
+package com.lanahra.whitelist.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.springframework.stereotype.Component;
+
+/**
+ * ServiceMetrics
+ * Meters of the validation and insertion pipelines, recorded by the Service
+ * and the Listener, validation latency is split into the match and publish
+ * stages, each one with a percentile histogram.
+ *
+ * @see WhitelistMetrics
+ */
+@Component
+public class ServiceMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Timer load;
+
+    private final Timer match;
+
+    private final Timer batchMatch;
+
+    private final Timer publish;
+
+    private final Counter matched;
+
+    private final Counter notMatched;
+
+    private final Counter inserted;
+
+    private final Counter duplicated;
+
+    private final Map<ChangePropagation.Delivery, Counter> changes = new EnumMap<>(ChangePropagation.Delivery.class);
+
+    public ServiceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        load = Timer.builder("whitelist.load")
+            .description("Time to page the whitelist out of the repositories")
+            .register(registry);
+
+        match = stage("whitelist.validation", "match");
+        batchMatch = stage("whitelist.validation.batch", "match");
+        publish = stage("whitelist.validation", "publish");
+
+        matched = Counter.builder("whitelist.validation.results")
+            .tag("result", "match")
+            .register(registry);
+
+        notMatched = Counter.builder("whitelist.validation.results")
+            .tag("result", "no_match")
+            .register(registry);
+
+        inserted = Counter.builder("whitelist.insertions")
+            .tag("result", "inserted")
+            .register(registry);
+
+        duplicated = Counter.builder("whitelist.insertions")
+            .tag("result", "duplicate")
+            .register(registry);
+
+        for (ChangePropagation.Delivery delivery : ChangePropagation.Delivery.values()) {
+            changes.put(delivery, Counter.builder("whitelist.changes")
+                .tag("delivery", delivery.name().toLowerCase())
+                .register(registry));
+        }
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * @return elapsed nanoseconds
+     */
+    public long recordLoad(Timer.Sample sample) {
+        return sample.stop(load);
+    }
+
+    public void recordMatch(Timer.Sample sample, boolean match) {
+        sample.stop(this.match);
+        (match ? matched : notMatched).increment();
+    }
+
+    public void recordBatchMatch(Timer.Sample sample, List<ValidationResponse> responses) {
+        sample.stop(batchMatch);
+
+        for (ValidationResponse response : responses) {
+            (response.getMatch() ? matched : notMatched).increment();
+        }
+    }
+
+    /**
+     * @return number of single and batch matches so far
+     */
+    public long matchCount() {
+        return match.count() + batchMatch.count();
+    }
+
+    /**
+     * @return time spent by single and batch matches so far
+     */
+    public double matchTotalMillis() {
+        return match.totalTime(TimeUnit.MILLISECONDS) + batchMatch.totalTime(TimeUnit.MILLISECONDS);
+    }
+
+    public void recordPublish(Timer.Sample sample) {
+        sample.stop(publish);
+    }
+
+    public void recordInsertions(int inserted, int duplicated) {
+        this.inserted.increment(inserted);
+        this.duplicated.increment(duplicated);
+    }
+
+    public void recordChange(ChangePropagation.Delivery delivery) {
+        changes.get(delivery).increment();
+    }
+
+    /**
+     * Record time since the message was published, if the publisher set the
+     * timestamp of the message
+     */
+    public void recordLag(String queue, Date timestamp) {
+        if (timestamp != null) {
+            long lag = Math.max(0, System.currentTimeMillis() - timestamp.getTime());
+            registry.timer("whitelist.queue.lag", "queue", queue).record(lag, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Timer stage(String name, String stage) {
+        return Timer.builder(name)
+            .tag("stage", stage)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+}
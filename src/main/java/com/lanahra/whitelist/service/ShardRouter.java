@@ -0,0 +1,91 @@
+package com.lanahra.whitelist.service;
+
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * ShardRouter
+ * Client affinity of the instance, clients are spread over $SHARD_COUNT
+ * shards by a consistent hash of the client, and this instance owns the
+ * clients of shard $SHARD_INDEX, only their whitelists are resident along
+ * with the global whitelist.
+ *
+ * Every ingress queue has one queue per shard, messages of a client owned
+ * by another shard are forwarded to the queue of that shard, marked with
+ * the shard header so they are never forwarded again. Changes of the global
+ * whitelist reach every shard through the ChangePropagation.
+ *
+ * @see ChangePropagation
+ * @see ConsistentHash
+ */
+@Component
+public class ShardRouter {
+
+    public static final String SHARD_HEADER = "x-whitelist-shard";
+
+    private static final int VIRTUAL_NODES = 128;
+
+    @Value("${SHARD_COUNT:1}")
+    private int shardCount = 1;
+
+    @Value("${SHARD_INDEX:0}")
+    private int shardIndex = 0;
+
+    private ConsistentHash ring;
+
+    @PostConstruct
+    public void initialize() {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalStateException("Invalid shard " + shardIndex + " of " + shardCount);
+        }
+
+        ring = new ConsistentHash(shardCount, VIRTUAL_NODES);
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * @return shard owning the client
+     */
+    public int shard(String client) {
+        return isSharded() ? ring.shard(client) : 0;
+    }
+
+    /**
+     * @return true if the whitelist of the client, null for the global
+     *     whitelist, is resident in this instance
+     */
+    public boolean owns(String client) {
+        return client == null || shard(client) == shardIndex;
+    }
+
+    /**
+     * @return name of the queue of the shard for an ingress queue, also used
+     *     as routing key in the shard exchange
+     */
+    public String queue(String ingress, int shard) {
+        return ingress + ".shard." + shard;
+    }
+
+    /**
+     * @return queues consumed by this instance for an ingress queue
+     */
+    public String[] queues(String ingress) {
+        if (!isSharded()) {
+            return new String[] {ingress};
+        }
+
+        return new String[] {ingress, queue(ingress, shardIndex)};
+    }
+}
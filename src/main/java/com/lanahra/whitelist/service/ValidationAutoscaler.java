@@ -0,0 +1,132 @@
+package com.lanahra.whitelist.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Date;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+/**
+ * ValidationAutoscaler
+ * Resize the validation listener container at runtime, between
+ * $VALIDATION_MIN_CONSUMERS and $VALIDATION_MAX_CONSUMERS consumers, both
+ * $NUMBER_OF_VALIDATION_CONSUMERS by default, so the container is only
+ * resized if they differ. Every $AUTOSCALE_INTERVAL milliseconds, the depth
+ * of the validation queues and the match latency, against the target of
+ * $VALIDATION_TARGET_LATENCY milliseconds, are handed to the ConsumerScaler.
+ *
+ * @see ConsumerScaler
+ */
+@Component
+public class ValidationAutoscaler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationAutoscaler.class);
+
+    public static final String LISTENER_ID = "validation";
+
+    @Autowired
+    private RabbitListenerEndpointRegistry listenerRegistry;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private ServiceMetrics metrics;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ThreadPoolTaskScheduler autoscaleScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${VALIDATION_QUEUE}")
+    private String validationQueueName;
+
+    @Value("${VALIDATION_MIN_CONSUMERS:${NUMBER_OF_VALIDATION_CONSUMERS}}")
+    private Integer minConsumers;
+
+    @Value("${VALIDATION_MAX_CONSUMERS:${NUMBER_OF_VALIDATION_CONSUMERS}}")
+    private Integer maxConsumers;
+
+    @Value("${VALIDATION_TARGET_LATENCY:50}")
+    private Double targetLatency;
+
+    @Value("${AUTOSCALE_INTERVAL:5000}")
+    private Long interval;
+
+    private ConsumerScaler scaler;
+
+    private volatile int consumers;
+
+    private long matchCount;
+
+    private double matchTotal;
+
+    @PostConstruct
+    public void initialize() {
+        scaler = new ConsumerScaler(minConsumers, maxConsumers, targetLatency);
+        consumers = minConsumers;
+
+        Gauge.builder("whitelist.consumers", this, autoscaler -> autoscaler.consumers)
+            .tag("listener", LISTENER_ID)
+            .register(meterRegistry);
+
+        if (maxConsumers > minConsumers) {
+            autoscaleScheduler.scheduleAtFixedRate(this::scale, new Date(System.currentTimeMillis() + interval),
+                interval);
+        }
+    }
+
+    /**
+     * A task scheduled at fixed rate is cancelled by its first failure, so
+     * failures are only logged
+     */
+    private void scale() {
+        try {
+            resize();
+        } catch (RuntimeException e) {
+            LOGGER.error("Autoscaling Failed: {}", e.getMessage());
+        }
+    }
+
+    private void resize() {
+        MessageListenerContainer container = listenerRegistry.getListenerContainer(LISTENER_ID);
+
+        if (!(container instanceof SimpleMessageListenerContainer) || !container.isRunning()) {
+            return;
+        }
+
+        double depth = 0;
+
+        for (String queue : shardRouter.queues(validationQueueName)) {
+            depth += ListenerConfiguration.depth(amqpAdmin, queue);
+        }
+
+        long count = metrics.matchCount();
+        double total = metrics.matchTotalMillis();
+        double latency = count > matchCount ? (total - matchTotal) / (count - matchCount) : Double.NaN;
+        matchCount = count;
+        matchTotal = total;
+
+        int next = scaler.decide(consumers, depth, latency);
+
+        if (next != consumers) {
+            LOGGER.info("Scale validation consumers from {} to {}, depth {}, latency {} ms",
+                consumers, next, depth, latency);
+            ((SimpleMessageListenerContainer) container).setConcurrentConsumers(next);
+            consumers = next;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.lanahra.whitelist.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * VirtualThreads
+ * Factories of virtual threads, looked up by reflection so the application
+ * still builds and runs on Java 8, they are only available on Java 21 or
+ * later.
+ *
+ * A virtual thread blocked on I/O or on a lock releases its carrier thread,
+ * so blocking work no longer holds a platform thread, but a virtual thread
+ * inside a synchronized block still pins its carrier on Java 21. The number
+ * of virtual threads is unbounded, concurrency has to be bounded by
+ * semaphores instead of pool sizes.
+ *
+ * @see BoundedExecutor
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return factory of virtual threads named after the prefix and a counter
+     * @throws IllegalStateException if virtual threads are not available
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isAvailable()) {
+            throw new IllegalStateException("Virtual threads require Java 21, running "
+                + System.getProperty("java.version"));
+        }
+
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object named = builder.getMethod("name", String.class, long.class)
+                .invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(named);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads unavailable", e);
+        }
+    }
+
+    /**
+     * @return executor starting a new virtual thread for every task
+     * @throws IllegalStateException if virtual threads are not available
+     */
+    public static ExecutorService executor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads unavailable", e);
+        }
+    }
+
+    private static Method method(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.lanahra.whitelist.service;
+
+import com.lanahra.whitelist.matcher.MatchCache;
+import com.lanahra.whitelist.matcher.PatternCache;
+import com.lanahra.whitelist.matcher.Whitelist;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * WhitelistMetrics
+ * Meters sampled from the resident Whitelist and its caches on each scrape,
+ * so the hot path only ever updates its own counters.
+ *
+ * @see ServiceMetrics
+ */
+@Component
+public class WhitelistMetrics implements MeterBinder {
+
+    @Autowired
+    private Whitelist whitelist;
+
+    @Autowired(required = false)
+    private MatchCache matchCache;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("whitelist.size", whitelist, Whitelist::globalSize)
+            .tag("scope", "global")
+            .register(registry);
+
+        Gauge.builder("whitelist.size", whitelist, Whitelist::clientsSize)
+            .tag("scope", "client")
+            .register(registry);
+
+        Gauge.builder("whitelist.clients", whitelist, Whitelist::clientCount)
+            .register(registry);
+
+        FunctionCounter.builder("whitelist.exhausted", whitelist, Whitelist::exhausted)
+            .description("Verifications aborted for exceeding the match step budget")
+            .register(registry);
+
+        Gauge.builder("whitelist.flagged", whitelist, Whitelist::flagged)
+            .description("Expressions with nested quantifiers")
+            .register(registry);
+
+        FunctionCounter.builder("whitelist.regex.evaluations", whitelist, Whitelist::evaluations)
+            .description("Regular expressions evaluated by validations")
+            .register(registry);
+
+        PatternCache patternCache = PatternCache.getInstance();
+
+        Gauge.builder("whitelist.pattern.cache.size", patternCache, PatternCache::size)
+            .register(registry);
+
+        FunctionCounter.builder("whitelist.pattern.cache.requests", patternCache, PatternCache::hitCount)
+            .tag("result", "hit")
+            .register(registry);
+
+        FunctionCounter.builder("whitelist.pattern.cache.requests", patternCache, PatternCache::missCount)
+            .tag("result", "miss")
+            .register(registry);
+
+        if (matchCache != null) {
+            Gauge.builder("whitelist.match.cache.size", matchCache, MatchCache::size)
+                .register(registry);
+
+            FunctionCounter.builder("whitelist.match.cache.requests", matchCache, MatchCache::hitCount)
+                .tag("result", "hit")
+                .register(registry);
+
+            FunctionCounter.builder("whitelist.match.cache.requests", matchCache, MatchCache::missCount)
+                .tag("result", "miss")
+                .register(registry);
+        }
+    }
+}
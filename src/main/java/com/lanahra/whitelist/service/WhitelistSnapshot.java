@@ -0,0 +1,223 @@
+package com.lanahra.whitelist.service;
+
+import com.lanahra.whitelist.matcher.Whitelist;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * WhitelistSnapshot
+ * Binary file, at $SNAPSHOT_PATH, with every regular expression of the
+ * resident Whitelist and the watermarks, the greatest id of each repository
+ * whose Expressions are all in the file. On startup the file is memory
+ * mapped and restored in bulk, so only rows with a greater id have to be
+ * read from the repositories. Disabled if $SNAPSHOT_PATH is empty.
+ *
+ * The file is written to a temporary file and then moved over the previous
+ * one, so a snapshot is either whole or absent. A snapshot of another
+ * format version or of another shard is ignored.
+ *
+ * Format, big endian:
+ *     int magic, int format version, int shard count, int shard index,
+ *     int global watermark, int client watermark, int scope count,
+ *     then each scope: string client, or length -1 if global,
+ *     int regex count, then each string regex.
+ *     Strings are an int length followed by the UTF-8 bytes.
+ */
+@Component
+public class WhitelistSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WhitelistSnapshot.class);
+
+    private static final int MAGIC = 0x574c534e;
+
+    private static final int FORMAT_VERSION = 1;
+
+    @Autowired
+    private Whitelist whitelist;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${SNAPSHOT_PATH:}")
+    private String path = "";
+
+    public boolean isEnabled() {
+        return !path.isEmpty();
+    }
+
+    /**
+     * Restore the snapshot into the Whitelist, only if its watermark is
+     * still current
+     *
+     * @return Watermark of the snapshot if restored
+     * @return null if disabled, missing, incompatible or not current
+     */
+    public Watermark restore(Predicate<Watermark> current) {
+        if (!isEnabled() || !Files.isRegularFile(Paths.get(path))) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                LOGGER.warn("Snapshot {} too large to be mapped", path);
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                LOGGER.warn("Snapshot {} of unknown format", path);
+                return null;
+            }
+
+            if (buffer.getInt() != shardRouter.getShardCount() || buffer.getInt() != shardRouter.getShardIndex()) {
+                LOGGER.warn("Snapshot {} of another shard", path);
+                return null;
+            }
+
+            Watermark watermark = new Watermark(buffer.getInt(), buffer.getInt());
+
+            if (!current.test(watermark)) {
+                LOGGER.warn("Snapshot {} ahead of the repositories", path);
+                return null;
+            }
+
+            int scopes = buffer.getInt();
+
+            for (int i = 0; i < scopes; i++) {
+                String client = string(buffer);
+                int count = buffer.getInt();
+                List<String> regexes = new ArrayList<>(count);
+
+                for (int j = 0; j < count; j++) {
+                    regexes.add(string(buffer));
+                }
+
+                whitelist.addAll(client, regexes);
+            }
+
+            return watermark;
+        } catch (IOException | BufferUnderflowException e) {
+            LOGGER.warn("Snapshot {} unreadable: {}", path, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Write every regular expression of the Whitelist, it must hold every
+     * Expression up to the watermark
+     */
+    public void save(Watermark watermark) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        List<String> clients = new ArrayList<>();
+        List<List<String>> regexes = new ArrayList<>();
+
+        whitelist.forEach((client, scope) -> {
+            clients.add(client);
+            regexes.add(scope);
+        });
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(shardRouter.getShardCount());
+                out.writeInt(shardRouter.getShardIndex());
+                out.writeInt(watermark.getGlobal());
+                out.writeInt(watermark.getClient());
+                out.writeInt(clients.size());
+
+                for (int i = 0; i < clients.size(); i++) {
+                    string(out, clients.get(i));
+                    out.writeInt(regexes.get(i).size());
+
+                    for (String regex : regexes.get(i)) {
+                        string(out, regex);
+                    }
+                }
+            }
+
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            LOGGER.info("Snapshot {} written up to {}", path, watermark);
+        } catch (IOException e) {
+            LOGGER.error("Snapshot Failed: {}", e.getMessage());
+        }
+    }
+
+    private static String string(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void string(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Greatest id of each repository whose Expressions are all resident
+     */
+    public static final class Watermark {
+
+        private final int global;
+
+        private final int client;
+
+        public Watermark(int global, int client) {
+            this.global = global;
+            this.client = client;
+        }
+
+        public int getGlobal() {
+            return global;
+        }
+
+        public int getClient() {
+            return client;
+        }
+
+        @Override
+        public String toString() {
+            return "Watermark [global=" + global + ", client=" + client + "]";
+        }
+    }
+}
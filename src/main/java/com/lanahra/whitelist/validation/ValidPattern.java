@@ -13,7 +13,7 @@ import javax.validation.Payload;
  *
  * @see ValidPatternValidation
  */
-@Target({ElementType.METHOD, ElementType.FIELD})
+@Target({ElementType.METHOD, ElementType.FIELD, ElementType.TYPE_USE})
 @Retention(RetentionPolicy.RUNTIME)
 @Constraint(validatedBy=ValidPatternValidator.class)
 public @interface ValidPattern {
@@ -1,12 +1,14 @@
 package com.lanahra.whitelist.validation;
 
-import java.util.regex.Pattern;
+import com.lanahra.whitelist.matcher.PatternCache;
 import java.util.regex.PatternSyntaxException;
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
 
 /**
  * Implementation of ValidPattern Annotation
+ * Valid regular expressions are compiled through the PatternCache, so they
+ * are not compiled again once inserted in the Whitelist.
  */
 public class ValidPatternValidator implements ConstraintValidator<ValidPattern, String> {
 
@@ -26,7 +28,7 @@ public class ValidPatternValidator implements ConstraintValidator<ValidPattern,
         }
 
         try {
-            Pattern.compile(regex);
+            PatternCache.getInstance().compile(regex);
         } catch (PatternSyntaxException e) {
             return false;
         }
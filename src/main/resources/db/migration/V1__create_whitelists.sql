@@ -0,0 +1,36 @@
+-- Whitelists were created by Hibernate on every startup, dropping all of
+-- their rows, so tables of a schema baselined from that era hold nothing
+-- worth keeping and are recreated.
+DROP TABLE IF EXISTS global_whitelist;
+DROP TABLE IF EXISTS client_whitelist;
+
+-- Uniqueness is enforced on a SHA-256 of the regular expression, a fixed
+-- 32 bytes key instead of up to 512 bytes of utf8mb4 text, generated by
+-- MySQL so every writer gets it for free. Regular expressions and clients
+-- are compared byte for byte, as the matcher does.
+--
+-- Ids only grow, the loader scans both tables by id, created_at records the
+-- insertion time of each row.
+--
+-- client is always null in global_whitelist, it is mapped by the Expression
+-- superclass.
+CREATE TABLE global_whitelist (
+    id INT NOT NULL AUTO_INCREMENT,
+    client VARCHAR(128) NULL,
+    regex VARCHAR(128) NOT NULL,
+    regex_hash BINARY(32) AS (UNHEX(SHA2(regex, 256))) STORED NOT NULL,
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_global_whitelist_regex_hash (regex_hash)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_bin;
+
+CREATE TABLE client_whitelist (
+    id INT NOT NULL AUTO_INCREMENT,
+    client VARCHAR(128) NOT NULL,
+    regex VARCHAR(128) NOT NULL,
+    regex_hash BINARY(32) AS (UNHEX(SHA2(regex, 256))) STORED NOT NULL,
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_client_whitelist_client_regex_hash (client, regex_hash),
+    KEY ix_client_whitelist_client_id (client, id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COLLATE = utf8mb4_bin;
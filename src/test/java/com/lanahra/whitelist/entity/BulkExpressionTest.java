@@ -0,0 +1,78 @@
+package com.lanahra.whitelist.entity;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BulkExpressionTest {
+
+    private static Validator validator;
+
+    @BeforeClass
+    public static void setUp() {
+        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
+        validator = factory.getValidator();
+    }
+
+    @Test
+    public void testRegexesNull() {
+        BulkExpression bulkExpression = new BulkExpression();
+        bulkExpression.setClient("client");
+
+        Set<ConstraintViolation<BulkExpression>> violations = validator.validate(bulkExpression);
+
+        assertThat(violations.size()).isEqualTo(1);
+
+        assertThat(violations.iterator().next().getMessage())
+            .isEqualTo("must not be null");
+    }
+
+    @Test
+    public void testRegexesEmpty() {
+        BulkExpression bulkExpression = new BulkExpression();
+        bulkExpression.setClient("client");
+        bulkExpression.setRegexes(Arrays.asList());
+
+        Set<ConstraintViolation<BulkExpression>> violations = validator.validate(bulkExpression);
+
+        assertThat(violations.size()).isEqualTo(1);
+
+        assertThat(violations.iterator().next().getMessage())
+            .isEqualTo("size must be between 1 and 100000");
+    }
+
+    @Test
+    public void testRegexInvalid() {
+        BulkExpression bulkExpression = new BulkExpression();
+        bulkExpression.setClient("client");
+        bulkExpression.setRegexes(Arrays.asList("abc", "(abc))", ""));
+
+        Set<ConstraintViolation<BulkExpression>> violations = validator.validate(bulkExpression);
+
+        assertThat(violations).extracting(ConstraintViolation::getMessage)
+            .containsExactlyInAnyOrder("not a valid regex", "size must be between 1 and 128");
+    }
+
+    @Test
+    public void testValid() {
+        BulkExpression bulkExpression = new BulkExpression();
+        bulkExpression.setRegexes(Arrays.asList("abc", "ab.*ba"));
+
+        Set<ConstraintViolation<BulkExpression>> violations = validator.validate(bulkExpression);
+
+        assertThat(violations.size()).isEqualTo(0);
+
+        List<Expression> expressions = bulkExpression.toExpressions();
+
+        assertThat(expressions).extracting(Expression::getRegex).containsExactly("abc", "ab.*ba");
+        assertThat(expressions).extracting(Expression::getClient).containsOnlyNulls();
+    }
+}
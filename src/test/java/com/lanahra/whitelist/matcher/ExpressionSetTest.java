@@ -0,0 +1,148 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class ExpressionSetTest {
+
+    @Test
+    public void testAdd_duplicate() {
+        ExpressionSet expressions = new ExpressionSet();
+
+        assertThat(expressions.add("https?://example\\.com/.*")).isTrue();
+        assertThat(expressions.add("https?://example\\.com/.*")).isFalse();
+        assertThat(expressions.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMatch_noMatch() {
+        ExpressionSet expressions = new ExpressionSet();
+        expressions.add("https?://example\\.com/.*");
+
+        assertThat(expressions.match("https://example.org/")).isNull();
+    }
+
+    @Test
+    public void testMatch_firstInInsertionOrder() {
+        List<String> regexes = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            regexes.add("https?://host" + i + "\\.com/.*");
+        }
+
+        regexes.add("(https?)://\\1\\.com/.*");
+        regexes.add(".*/path");
+        regexes.add("https?://host500\\.com/path");
+
+        ExpressionSet expressions = new ExpressionSet();
+        expressions.addAll(regexes);
+
+        assertThat(expressions.match("https://host500.com/path"))
+            .isEqualTo("https?://host500\\.com/.*");
+
+        assertThat(expressions.match("http://http.com/"))
+            .isEqualTo("(https?)://\\1\\.com/.*");
+
+        assertThat(expressions.match("https://other.com/path"))
+            .isEqualTo(".*/path");
+    }
+
+    @Test
+    public void testMatch_sameAsUnfiltered() {
+        List<String> regexes = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            regexes.add("https?://host" + i + "\\.com/.*");
+        }
+
+        regexes.add("https?://example\\.com/.*|https?://other\\.com/.*");
+        regexes.add("https?://(?:shop|www)\\.example\\.org/.*");
+        regexes.add("https?://example\\.net?/.*");
+        regexes.add("https?://example\\.com(\\.br)?/.*");
+        regexes.add("https?://first\\.com/x|.*://second\\.com/y");
+
+        ExpressionSet expressions = new ExpressionSet();
+        expressions.addAll(regexes);
+
+        List<String> urls = Arrays.asList(
+            "https://host7.com/", "https://example.com/x", "https://other.com/x",
+            "https://www.example.org/", "https://example.ne/", "https://example.com.br/",
+            "ftp://second.com/y", "https://first.com/x", "https://nothing.com/");
+
+        for (String url : urls) {
+            String expected = regexes.stream()
+                .filter(regex -> Pattern.matches(regex, url))
+                .findFirst()
+                .orElse(null);
+
+            assertThat(expressions.match(url)).as(url).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testMatch_unindexedExpressions() {
+        ExpressionSet expressions = new ExpressionSet();
+        expressions.addAll(Arrays.asList("first\\.com", "second\\.com"));
+
+        for (int i = 0; i < 100; i++) {
+            expressions.add("host" + i + "\\.com");
+        }
+
+        assertThat(expressions.match("second.com")).isEqualTo("second\\.com");
+        assertThat(expressions.match("host99.com")).isEqualTo("host99\\.com");
+    }
+
+    @Test
+    public void testMatch_overBudget() {
+        ExpressionSet expressions = new ExpressionSet(10);
+        expressions.add("a*b");
+        expressions.add("a*");
+
+        assertThat(expressions.match("ab")).isEqualTo("a*b");
+        assertThat(expressions.exhausted()).isZero();
+
+        assertThat(expressions.match("aaaaaaaaaaaaaaaaaaaa")).isNull();
+        assertThat(expressions.exhausted()).isEqualTo(2);
+
+        assertThat(expressions.match("ab")).isEqualTo("a*b");
+        assertThat(expressions.match("aaa")).isEqualTo("a*");
+    }
+
+    @Test
+    public void testMatch_defaultBudget() {
+        // a quarter of the default budget, so the default leaves headroom on every JDK
+        ExpressionSet expressions = new ExpressionSet(Whitelist.DEFAULT_STEP_BUDGET / 4);
+        expressions.add(".*a.*b.*c.*d.*");
+
+        StringBuilder url = new StringBuilder("http://x.com/");
+
+        while (url.length() < 128) {
+            url.append("abc");
+        }
+
+        assertThat(expressions.match(url.toString())).isNull();
+        assertThat(expressions.exhausted()).isZero();
+        assertThat(expressions.match("http://x.com/abcd")).isEqualTo(".*a.*b.*c.*d.*");
+
+        expressions.add("http://x\\.com/(.*a){12}$");
+        expressions.setStepBudget(Whitelist.DEFAULT_STEP_BUDGET);
+
+        assertThat(expressions.match("http://x.com/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!")).isNull();
+        assertThat(expressions.exhausted()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAdd_flagNestedQuantifiers() {
+        ExpressionSet expressions = new ExpressionSet();
+        expressions.add("(a+)+$");
+        expressions.add("https?://example\\.com/.*");
+
+        assertThat(expressions.flagged()).isEqualTo(1);
+        assertThat(expressions.match("aaa")).isEqualTo("(a+)+$");
+    }
+}
@@ -0,0 +1,93 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class LinearEngineTest {
+
+    @Test
+    public void testCompile_linear() {
+        ExpressionMatcher matcher = LinearEngine.INSTANCE.compile("https?://example\\.com/.*");
+
+        assertThat(matcher.engine()).isEqualTo(LinearEngine.NAME);
+        assertThat(matcher.matches("https://example.com/index", 0)).isTrue();
+        assertThat(matcher.matches("https://example.com.evil/index", 0)).isFalse();
+    }
+
+    @Test
+    public void testCompile_wholeUrl() {
+        ExpressionMatcher matcher = LinearEngine.INSTANCE.compile("example");
+
+        assertThat(matcher.matches("example", 0)).isTrue();
+        assertThat(matcher.matches("https://example.com", 0)).isFalse();
+    }
+
+    @Test
+    public void testCompile_fallbackBackreference() {
+        ExpressionMatcher matcher = LinearEngine.INSTANCE.compile("(a+)b\\1");
+
+        assertThat(matcher.engine()).isEqualTo(JdkEngine.NAME);
+        assertThat(matcher.matches("aabaa", 0)).isTrue();
+        assertThat(matcher.matches("aaba", 0)).isFalse();
+    }
+
+    @Test
+    public void testCompile_fallbackIntersection() {
+        ExpressionMatcher matcher = LinearEngine.INSTANCE.compile("[a-z&&[^b]]+");
+
+        assertThat(matcher.engine()).isEqualTo(JdkEngine.NAME);
+        assertThat(matcher.matches("acd", 0)).isTrue();
+        assertThat(matcher.matches("abc", 0)).isFalse();
+    }
+
+    @Test
+    public void testCompile_sameAsJdk() {
+        String[][] cases = {
+            {"https?://[a[bc]]\\.com/", "https://b.com/", "https://a.com/", "https://[.com/"},
+            {"[[:alpha:]]+", "abc", "[:alpha:]", ":"},
+            {"[]a]+", "]a", "a"},
+            {"a.c", "abc", "a\rc", "a\u2028c", "a\nc"},
+            {"a\\sb", "a b", "a\u000Bb"},
+            {"\\bfoo\\b", "foo", "éfoo"},
+            {"(?i)strasse", "STRASSE", "straße"},
+            {"a$\n?", "a", "a\n"},
+            {"\\Q.\\E.", ".x", "xx"},
+            {"[\\x{41}-\\x{43}]+\\.\\x41", "ABC.A", "ABD.A"},
+        };
+
+        for (String[] tested : cases) {
+            ExpressionMatcher linear = LinearEngine.INSTANCE.compile(tested[0]);
+            ExpressionMatcher jdk = JdkEngine.INSTANCE.compile(tested[0]);
+
+            assertThat(linear.regex()).isEqualTo(tested[0]);
+
+            for (int i = 1; i < tested.length; i++) {
+                assertThat(linear.matches(tested[i], 0))
+                    .as(tested[0] + " on " + tested[i])
+                    .isEqualTo(jdk.matches(tested[i], 0));
+            }
+        }
+    }
+
+    @Test
+    public void testCompile_linearWhenPortable() {
+        assertThat(LinearEngine.INSTANCE.compile("https?://(?:www\\.)?example\\.com/.*").engine())
+            .isEqualTo(LinearEngine.NAME);
+        assertThat(LinearEngine.INSTANCE.compile(".*/[a-z0-9_-]{1,8}/\\d+\\.(png|jpg)$").engine())
+            .isEqualTo(LinearEngine.NAME);
+        assertThat(LinearEngine.INSTANCE.compile("https?://[a[bc]]\\.com/").engine())
+            .isEqualTo(JdkEngine.NAME);
+    }
+
+    @Test
+    public void testMatch_noBudgetNeeded() {
+        ExpressionSet expressions = new ExpressionSet(LinearEngine.INSTANCE, 10);
+        expressions.add("(a+)+b");
+
+        assertThat(expressions.match("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa")).isNull();
+        assertThat(expressions.match("aaaaaaaaaaaaaaaaaaaaaaaaaaaaab")).isEqualTo("(a+)+b");
+        assertThat(expressions.exhausted()).isZero();
+        assertThat(expressions.flagged()).isZero();
+    }
+}
@@ -0,0 +1,68 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class LiteralExtractorTest {
+
+    @Test
+    public void testRequiredLiteral_host() {
+        assertThat(LiteralExtractor.requiredLiteral("https?://example\\.com/.*"))
+            .isEqualTo("://example.com/");
+    }
+
+    @Test
+    public void testRequiredLiteral_optionalCharacter() {
+        assertThat(LiteralExtractor.requiredLiteral("abcd?ef"))
+            .isEqualTo("abc");
+
+        assertThat(LiteralExtractor.requiredLiteral("ab+cd"))
+            .isEqualTo("ab");
+    }
+
+    @Test
+    public void testRequiredLiteral_quoted() {
+        assertThat(LiteralExtractor.requiredLiteral("[a-z]+\\Q.example.com\\E"))
+            .isEqualTo(".example.com");
+    }
+
+    @Test
+    public void testRequiredLiteral_none() {
+        assertThat(LiteralExtractor.requiredLiteral(".*")).isNull();
+        assertThat(LiteralExtractor.requiredLiteral("a.b.c")).isNull();
+        assertThat(LiteralExtractor.requiredLiteral("example|other")).isNull();
+        assertThat(LiteralExtractor.requiredLiteral("(?i)example")).isNull();
+        assertThat(LiteralExtractor.requiredLiteral("(a)\\1example")).isNull();
+    }
+
+    @Test
+    public void testRequiredHost() {
+        assertThat(LiteralExtractor.requiredHost("https?://example\\.com/.*"))
+            .isEqualTo("example.com");
+
+        assertThat(LiteralExtractor.requiredHost("^(?:http|https)://example\\.com:8080/.*"))
+            .isEqualTo("example.com");
+
+        assertThat(LiteralExtractor.requiredHost("https://example\\.com"))
+            .isEqualTo("example.com");
+    }
+
+    @Test
+    public void testRequiredHost_none() {
+        assertThat(LiteralExtractor.requiredHost("https?://example\\.com.*")).isNull();
+        assertThat(LiteralExtractor.requiredHost("https?://example\\.com/?.*")).isNull();
+        assertThat(LiteralExtractor.requiredHost("https?://example.com/.*")).isNull();
+        assertThat(LiteralExtractor.requiredHost(".*://example\\.com/.*")).isNull();
+        assertThat(LiteralExtractor.requiredHost("https?://example\\.com/.*|https?://other\\.com/.*")).isNull();
+        assertThat(LiteralExtractor.requiredHost("https?://example\\.com?/.*")).isNull();
+        assertThat(LiteralExtractor.requiredHost("https?://example\\.com(\\.br)?/.*")).isNull();
+    }
+
+    @Test
+    public void testHost() {
+        assertThat(LiteralExtractor.host("https://example.com:8080/path?query")).isEqualTo("example.com");
+        assertThat(LiteralExtractor.host("https://example.com")).isEqualTo("example.com");
+        assertThat(LiteralExtractor.host("example.com/path")).isNull();
+    }
+}
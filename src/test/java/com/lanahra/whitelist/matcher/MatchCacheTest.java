@@ -0,0 +1,101 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class MatchCacheTest {
+
+    @Test
+    public void testGet_hit() {
+        MatchCache cache = new MatchCache(2, 1000);
+
+        cache.put("client", "url", cache.stamp("client"), "regex");
+        cache.put("client", "other", cache.stamp("client"), null);
+
+        assertThat(cache.get("client", "url").getRegex()).isEqualTo("regex");
+        assertThat(cache.get("client", "other").getRegex()).isNull();
+        assertThat(cache.get("other", "url")).isNull();
+        assertThat(cache.hitCount()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet_evictLeastRecentlyUsed() {
+        MatchCache cache = new MatchCache(2, 1000);
+
+        cache.put("client", "first", cache.stamp("client"), "first");
+        cache.put("client", "second", cache.stamp("client"), "second");
+        cache.get("client", "first");
+        cache.put("client", "third", cache.stamp("client"), "third");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("client", "first")).isNotNull();
+        assertThat(cache.get("client", "second")).isNull();
+    }
+
+    @Test
+    public void testPut_boundedAcrossSegments() {
+        MatchCache cache = new MatchCache(1024, 1000);
+
+        for (int i = 0; i < 10000; i++) {
+            cache.put("client", "url" + i, cache.stamp("client"), null);
+        }
+
+        assertThat(cache.size()).isBetween(900, 1024);
+        assertThat(cache.get("client", "url9999")).isNotNull();
+    }
+
+    @Test
+    public void testGet_expired() {
+        AtomicLong clock = new AtomicLong();
+        MatchCache cache = new MatchCache(2, 1000, clock::get);
+
+        cache.put("client", "url", cache.stamp("client"), "regex");
+        clock.set(TimeUnit.MILLISECONDS.toNanos(999));
+
+        assertThat(cache.get("client", "url")).isNotNull();
+
+        clock.set(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        assertThat(cache.get("client", "url")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void testInvalidate_client() {
+        MatchCache cache = new MatchCache(4, 1000);
+
+        cache.put("client", "url", cache.stamp("client"), null);
+        cache.put("other", "url", cache.stamp("other"), null);
+        cache.invalidate("client");
+
+        assertThat(cache.get("client", "url")).isNull();
+        assertThat(cache.get("other", "url")).isNotNull();
+    }
+
+    @Test
+    public void testInvalidate_global() {
+        MatchCache cache = new MatchCache(4, 1000);
+
+        cache.put("client", "url", cache.stamp("client"), null);
+        cache.put("other", "url", cache.stamp("other"), null);
+        cache.invalidate(null);
+
+        assertThat(cache.get("client", "url")).isNull();
+        assertThat(cache.get("other", "url")).isNull();
+    }
+
+    @Test
+    public void testPut_staleStamp() {
+        MatchCache cache = new MatchCache(2, 1000);
+
+        MatchCache.Stamp stamp = cache.stamp("client");
+        cache.invalidate("client");
+        cache.put("client", "url", stamp, null);
+
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,29 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class NestedQuantifiersTest {
+
+    @Test
+    public void testDetect_nested() {
+        assertThat(NestedQuantifiers.detect("(a+)+$")).isTrue();
+        assertThat(NestedQuantifiers.detect("(\\w+\\.)*com")).isTrue();
+        assertThat(NestedQuantifiers.detect("(?:[a-z]+\\.)+com")).isTrue();
+        assertThat(NestedQuantifiers.detect("((a)+b)+")).isTrue();
+        assertThat(NestedQuantifiers.detect("(a{2,})*")).isTrue();
+        assertThat(NestedQuantifiers.detect("(a+){2}")).isTrue();
+    }
+
+    @Test
+    public void testDetect_notNested() {
+        assertThat(NestedQuantifiers.detect("a+b+")).isFalse();
+        assertThat(NestedQuantifiers.detect("(ab)+")).isFalse();
+        assertThat(NestedQuantifiers.detect("(a?)+")).isFalse();
+        assertThat(NestedQuantifiers.detect("(a{1})+")).isFalse();
+        assertThat(NestedQuantifiers.detect("[(a+)]+")).isFalse();
+        assertThat(NestedQuantifiers.detect("\\(a+\\)+")).isFalse();
+        assertThat(NestedQuantifiers.detect("https?://example\\.com/.*")).isFalse();
+    }
+}
@@ -0,0 +1,70 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import com.lanahra.whitelist.matcher.ExpressionSet.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelMatcherTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testMatch_firstInCandidateOrder() {
+        ParallelMatcher matcher = new ParallelMatcher(pool, 1);
+
+        List<Entry> candidates = candidates(1000);
+        candidates.add(700, entry(".*/first"));
+        candidates.add(900, entry(".*/.*"));
+
+        assertThat(matcher.match(candidates, "https://example.com/first").join())
+            .isEqualTo(".*/first");
+    }
+
+    @Test
+    public void testMatch_noMatch() {
+        ParallelMatcher matcher = new ParallelMatcher(pool, 1);
+
+        assertThat(matcher.match(candidates(1000), "https://example.com/").join())
+            .isNull();
+    }
+
+    @Test
+    public void testMatch_belowThreshold() {
+        ParallelMatcher matcher = new ParallelMatcher(pool, 4096);
+
+        List<Entry> candidates = candidates(10);
+        candidates.add(entry(".*"));
+
+        assertThat(matcher.match(candidates, "https://example.com/").isDone()).isTrue();
+    }
+
+    private static List<Entry> candidates(int count) {
+        List<Entry> candidates = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            candidates.add(entry("https?://host" + i + "\\.com/.*"));
+        }
+
+        return candidates;
+    }
+
+    private static Entry entry(String regex) {
+        return new Entry(PatternCache.getInstance().compile(regex));
+    }
+}
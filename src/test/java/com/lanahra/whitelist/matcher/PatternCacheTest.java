@@ -0,0 +1,51 @@
+package com.lanahra.whitelist.matcher;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.junit.Test;
+
+public class PatternCacheTest {
+
+    @Test
+    public void testCompile_hit() {
+        PatternCache cache = new PatternCache(2);
+
+        Pattern first = cache.compile("ab.*ba");
+        Pattern second = cache.compile("ab.*ba");
+
+        assertThat(second).isSameAs(first);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCompile_evictLeastRecentlyUsed() {
+        PatternCache cache = new PatternCache(2);
+
+        Pattern first = cache.compile("first");
+        cache.compile("second");
+        cache.compile("first");
+        cache.compile("third");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.compile("first")).isSameAs(first);
+        assertThat(cache.missCount()).isEqualTo(3);
+
+        cache.compile("second");
+
+        assertThat(cache.missCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testCompile_invalid() {
+        PatternCache cache = new PatternCache(2);
+
+        assertThatThrownBy(() -> cache.compile("(abc))"))
+            .isInstanceOf(PatternSyntaxException.class);
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.rabbitmq.client.Channel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AckTrackerTest {
+
+    private ScheduledExecutorService scheduler;
+
+    private Channel channel;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        channel = mock(Channel.class);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testAck_cumulative() throws Exception {
+        AckTracker tracker = new AckTracker(3, 60000, scheduler);
+
+        tracker.track(channel, 1);
+        tracker.track(channel, 2);
+        tracker.track(channel, 3);
+
+        tracker.ack(channel, 3);
+        tracker.ack(channel, 1);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        tracker.ack(channel, 2);
+        verify(channel).basicAck(3, true);
+        assertThat(tracker.isTracked(channel, 2)).isFalse();
+    }
+
+    @Test
+    public void testAck_maxWait() throws Exception {
+        AckTracker tracker = new AckTracker(10, 10, scheduler);
+
+        tracker.track(channel, 1);
+        tracker.ack(channel, 1);
+
+        verify(channel, timeout(1000)).basicAck(1, true);
+    }
+
+    @Test
+    public void testAck_inFlight() throws Exception {
+        AckTracker tracker = new AckTracker(2, 60000, scheduler);
+
+        tracker.track(channel, 1);
+        tracker.track(channel, 2);
+        tracker.track(channel, 3);
+        tracker.track(channel, 4);
+
+        tracker.ack(channel, 1);
+        tracker.ack(channel, 3);
+        verify(channel).basicAck(1, true);
+
+        tracker.ack(channel, 4);
+        verify(channel, never()).basicAck(eq(4L), anyBoolean());
+
+        tracker.ack(channel, 2);
+        verify(channel).basicAck(4, true);
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        AckTracker tracker = new AckTracker(2, 60000, scheduler);
+
+        tracker.track(channel, 1);
+        tracker.track(channel, 2);
+
+        tracker.reject(channel, 1, true);
+        verify(channel).basicReject(1, true);
+
+        tracker.ack(channel, 2);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        assertThat(tracker.isTracked(channel, 1)).isFalse();
+        assertThat(tracker.isTracked(channel, 3)).isFalse();
+    }
+}
@@ -0,0 +1,85 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedExecutorTest {
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testExecute_bounded() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor(pool, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(peak.get()).isBetween(1, 2);
+
+        // the last permit is released right after its task counted down
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (executor.availablePermits() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertThat(executor.availablePermits()).isEqualTo(2);
+    }
+
+    @Test
+    public void testExecute_failedTaskReleases() throws Exception {
+        BoundedExecutor executor = new BoundedExecutor(pool, 1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            throw new IllegalStateException("failed");
+        });
+        executor.execute(done::countDown);
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testFactory() {
+        if (VirtualThreads.isAvailable()) {
+            assertThat(VirtualThreads.factory("test-").newThread(() -> { }).getName()).isEqualTo("test-0");
+            return;
+        }
+
+        assertThatThrownBy(() -> VirtualThreads.factory("test-")).isInstanceOf(IllegalStateException.class);
+    }
+}
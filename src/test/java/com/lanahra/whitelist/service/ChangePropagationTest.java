@@ -0,0 +1,130 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChangePropagationTest {
+
+    @InjectMocks
+    private ChangePropagation changePropagation;
+
+    @Mock
+    private RabbitTemplate changeTemplate;
+
+    @Test
+    public void testPublish_versionPerWhitelist() {
+        changePropagation.publish(null, Arrays.asList("global"));
+        changePropagation.publish("client", Arrays.asList("first"));
+        changePropagation.publish("client", Arrays.asList("second"));
+
+        ArgumentCaptor<ChangeEvent> events = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeTemplate, times(3)).convertAndSend(events.capture());
+
+        List<ChangeEvent> published = events.getAllValues();
+
+        assertThat(published).extracting(ChangeEvent::getOrigin).containsOnly(changePropagation.getOrigin());
+        assertThat(published).extracting(ChangeEvent::getClient).containsExactly(null, "client", "client");
+        assertThat(published).extracting(ChangeEvent::getVersion).containsExactly(1L, 1L, 2L);
+    }
+
+    @Test
+    public void testPublish_failure() {
+        doThrow(new AmqpException("Unreachable")).when(changeTemplate).convertAndSend(any(Object.class));
+
+        changePropagation.publish("client", Arrays.asList("first"));
+        changePropagation.publish("client", Arrays.asList("second"));
+
+        verify(changeTemplate, times(2)).convertAndSend(any(Object.class));
+
+        reset(changeTemplate);
+        changePropagation.publish("client", Arrays.asList("third"));
+        changePropagation.publish("client", Arrays.asList("fourth"));
+
+        ArgumentCaptor<ChangeEvent> events = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeTemplate, times(2)).convertAndSend(events.capture());
+
+        List<ChangeEvent> published = events.getAllValues();
+
+        assertThat(published).extracting(ChangeEvent::getVersion).containsExactly(1L, 2L);
+        assertThat(published.get(0).getRegexes()).containsExactly("first", "second", "third");
+        assertThat(published.get(1).getRegexes()).containsExactly("fourth");
+    }
+
+    @Test
+    public void testMaintain_retryUnsent() {
+        doThrow(new AmqpException("Unreachable")).when(changeTemplate).convertAndSend(any(Object.class));
+        changePropagation.publish("client", Arrays.asList("first"));
+
+        reset(changeTemplate);
+        changePropagation.maintain();
+        changePropagation.maintain();
+
+        ArgumentCaptor<ChangeEvent> events = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeTemplate).convertAndSend(events.capture());
+
+        assertThat(events.getValue().getVersion()).isEqualTo(1L);
+        assertThat(events.getValue().getRegexes()).containsExactly("first");
+    }
+
+    @Test
+    public void testMaintain_expireOrigins() {
+        changePropagation.receive(event("other", 1));
+        changePropagation.maintain();
+
+        assertThat(changePropagation.tracked()).isEqualTo(1);
+
+        ReflectionTestUtils.setField(changePropagation, "originExpiry", -1L);
+        changePropagation.maintain();
+
+        assertThat(changePropagation.tracked()).isZero();
+        assertThat(changePropagation.receive(event("other", 2))).isEqualTo(ChangePropagation.Delivery.GAP);
+    }
+
+    @Test
+    public void testReceive_withoutVersion() {
+        ChangeEvent event = event("other", 1);
+        event.setVersion(null);
+
+        assertThat(changePropagation.receive(event)).isEqualTo(ChangePropagation.Delivery.GAP);
+        assertThat(changePropagation.tracked()).isZero();
+    }
+
+    @Test
+    public void testReceive_own() {
+        assertThat(changePropagation.receive(event(changePropagation.getOrigin(), 1)))
+            .isEqualTo(ChangePropagation.Delivery.OWN);
+    }
+
+    @Test
+    public void testReceive_versions() {
+        assertThat(changePropagation.receive(event("other", 4))).isEqualTo(ChangePropagation.Delivery.GAP);
+        assertThat(changePropagation.receive(event("other", 5))).isEqualTo(ChangePropagation.Delivery.IN_ORDER);
+        assertThat(changePropagation.receive(event("other", 5))).isEqualTo(ChangePropagation.Delivery.LATE);
+        assertThat(changePropagation.receive(event("other", 7))).isEqualTo(ChangePropagation.Delivery.GAP);
+        assertThat(changePropagation.receive(event("other", 6))).isEqualTo(ChangePropagation.Delivery.LATE);
+        assertThat(changePropagation.receive(event("other", 8))).isEqualTo(ChangePropagation.Delivery.IN_ORDER);
+        assertThat(changePropagation.receive(event("another", 1))).isEqualTo(ChangePropagation.Delivery.IN_ORDER);
+    }
+
+    private static ChangeEvent event(String origin, long version) {
+        ChangeEvent event = new ChangeEvent();
+        event.setOrigin(origin);
+        event.setVersion(version);
+        event.setClient("client");
+        event.setRegexes(Arrays.asList("regex"));
+        return event;
+    }
+}
@@ -0,0 +1,52 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class ConsistentHashTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testShard_stable() {
+        ConsistentHash first = new ConsistentHash(4, 128);
+        ConsistentHash second = new ConsistentHash(4, 128);
+
+        for (int i = 0; i < KEYS; i++) {
+            assertThat(first.shard("client" + i)).isEqualTo(second.shard("client" + i));
+        }
+    }
+
+    @Test
+    public void testShard_distribution() {
+        ConsistentHash ring = new ConsistentHash(4, 128);
+        int[] counts = new int[4];
+
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.shard("client" + i)]++;
+        }
+
+        for (int count : counts) {
+            assertThat(count).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10);
+        }
+    }
+
+    @Test
+    public void testShard_addShard() {
+        ConsistentHash before = new ConsistentHash(4, 128);
+        ConsistentHash after = new ConsistentHash(5, 128);
+        int moved = 0;
+
+        for (int i = 0; i < KEYS; i++) {
+            int shard = after.shard("client" + i);
+
+            if (shard != before.shard("client" + i)) {
+                assertThat(shard).isEqualTo(4);
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(KEYS / 5 * 7 / 10, KEYS / 5 * 13 / 10);
+    }
+}
@@ -0,0 +1,55 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class ConsumerScalerTest {
+
+    @Test
+    public void testDecide_scaleUp() {
+        ConsumerScaler scaler = new ConsumerScaler(1, 8, 50);
+
+        assertThat(scaler.decide(1, 11, 10)).isEqualTo(2);
+        assertThat(scaler.decide(2, 100, Double.NaN)).isEqualTo(3);
+        assertThat(scaler.decide(6, 1000, 10)).isEqualTo(8);
+        assertThat(scaler.decide(8, 1000, 10)).isEqualTo(8);
+    }
+
+    @Test
+    public void testDecide_saturated() {
+        ConsumerScaler scaler = new ConsumerScaler(1, 8, 50);
+
+        assertThat(scaler.decide(4, 1000, 80)).isEqualTo(4);
+    }
+
+    @Test
+    public void testDecide_scaleDown() {
+        ConsumerScaler scaler = new ConsumerScaler(2, 8, 50);
+
+        assertThat(scaler.decide(4, 0, 10)).isEqualTo(4);
+        assertThat(scaler.decide(4, 3, 10)).isEqualTo(4);
+        assertThat(scaler.decide(4, 0, 10)).isEqualTo(3);
+        assertThat(scaler.decide(3, 0, 10)).isEqualTo(3);
+        assertThat(scaler.decide(3, 5, 10)).isEqualTo(3);
+        assertThat(scaler.decide(3, 0, 10)).isEqualTo(3);
+        assertThat(scaler.decide(3, 0, 10)).isEqualTo(3);
+        assertThat(scaler.decide(3, 0, 10)).isEqualTo(2);
+
+        for (int i = 0; i < ConsumerScaler.SCALE_DOWN_TICKS; i++) {
+            assertThat(scaler.decide(2, 0, 10)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testDecide_unknownDepth() {
+        ConsumerScaler scaler = new ConsumerScaler(1, 8, 50);
+
+        assertThat(scaler.decide(4, Double.NaN, 10)).isEqualTo(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConsumerScaler_invalid() {
+        new ConsumerScaler(4, 2, 50);
+    }
+}
@@ -0,0 +1,103 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.rabbitmq.client.Channel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageBatcherTest {
+
+    private ScheduledExecutorService scheduler;
+
+    private Channel channel;
+
+    private List<List<String>> batches;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        channel = mock(Channel.class);
+        batches = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testAdd_fullBatch() throws Exception {
+        MessageBatcher<String> batcher = new MessageBatcher<>(2, 60000, scheduler, batch -> {
+            batches.add(batch);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        batcher.add(channel, 1, "first");
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        batcher.add(channel, 2, "second");
+        verify(channel).basicAck(2, true);
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).containsExactly("first", "second");
+    }
+
+    @Test
+    public void testAdd_maxWait() throws Exception {
+        MessageBatcher<String> batcher = new MessageBatcher<>(10, 10, scheduler, batch ->
+            CompletableFuture.completedFuture(null));
+
+        batcher.add(channel, 1, "first");
+
+        verify(channel, timeout(1000)).basicAck(1, true);
+    }
+
+    @Test
+    public void testAdd_settleInOrder() throws Exception {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        results.add(first);
+        results.add(second);
+
+        MessageBatcher<String> batcher = new MessageBatcher<>(1, 60000, scheduler, batch ->
+            results.remove(0));
+
+        batcher.add(channel, 1, "first");
+        batcher.add(channel, 2, "second");
+
+        second.complete(null);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        first.completeExceptionally(new IllegalStateException("failed"));
+        verify(channel).basicNack(1, true, true);
+        verify(channel).basicAck(2, true);
+    }
+
+    @Test
+    public void testAdd_perMessage() throws Exception {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("failed"));
+
+        MessageBatcher<String> batcher = MessageBatcher.perMessage(3, 60000, scheduler, batch ->
+            Arrays.asList(CompletableFuture.completedFuture(null), failed, CompletableFuture.completedFuture(null)));
+
+        batcher.add(channel, 1, "first");
+        batcher.add(channel, 2, "second");
+        batcher.add(channel, 3, "third");
+
+        verify(channel).basicAck(1, false);
+        verify(channel).basicNack(2, false, true);
+        verify(channel).basicAck(3, false);
+        verify(channel, never()).basicAck(anyLong(), eq(true));
+    }
+}
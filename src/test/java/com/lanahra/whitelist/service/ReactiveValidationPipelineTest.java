@@ -0,0 +1,136 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.validation.Validation;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+public class ReactiveValidationPipelineTest {
+
+    private static final String REQUEST =
+        "{\"client\": \"client\", \"url\": \"https://example.com\", \"correlationId\": 1}";
+
+    private Service service;
+
+    private ResponsePublisher responsePublisher;
+
+    private Channel channel;
+
+    private ReactiveValidationPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        service = mock(Service.class);
+        responsePublisher = mock(ResponsePublisher.class);
+        channel = mock(Channel.class);
+
+        pipeline = new ReactiveValidationPipeline();
+        ReflectionTestUtils.setField(pipeline, "service", service);
+        ReflectionTestUtils.setField(pipeline, "responsePublisher", responsePublisher);
+        ReflectionTestUtils.setField(pipeline, "metrics", new ServiceMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(pipeline, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(pipeline, "validator",
+            Validation.buildDefaultValidatorFactory().getValidator());
+        ReflectionTestUtils.setField(pipeline, "matching", Schedulers.immediate());
+
+        when(service.processExpressionValidation(any()))
+            .thenReturn(CompletableFuture.completedFuture(new ValidationResponse()));
+    }
+
+    @Test
+    public void testProcess_confirmed() throws Exception {
+        when(responsePublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        pipeline.process(delivery(1, REQUEST)).block();
+
+        verify(channel).basicAck(1, false);
+    }
+
+    @Test
+    public void testProcess_notConfirmed() throws Exception {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new AmqpException("nack"));
+        when(responsePublisher.publish(any())).thenReturn(failed);
+
+        pipeline.process(delivery(1, REQUEST)).block();
+
+        verify(channel).basicReject(1, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void testProcess_unreadable() throws Exception {
+        pipeline.process(delivery(2, "{")).block();
+
+        verify(channel).basicReject(2, false);
+        verifyZeroInteractions(service);
+    }
+
+    @Test
+    public void testProcess_invalid() throws Exception {
+        pipeline.process(delivery(3, "{\"client\": \"client\", \"correlationId\": 1}")).block();
+
+        verify(channel).basicReject(3, false);
+        verifyZeroInteractions(service);
+    }
+
+    @Test
+    public void testProcess_onMatchingScheduler() throws Exception {
+        Scheduler matching = Schedulers.newSingle("match-test");
+        ReflectionTestUtils.setField(pipeline, "matching", matching);
+        String[] thread = new String[1];
+        doAnswer(invocation -> {
+            thread[0] = Thread.currentThread().getName();
+            return null;
+        }).when(channel).basicReject(anyLong(), anyBoolean());
+
+        try {
+            pipeline.process(delivery(4, "{")).block();
+        } finally {
+            matching.dispose();
+        }
+
+        assertThat(thread[0]).startsWith("match-test");
+    }
+
+    @Test
+    public void testStop_drainInFlight() throws Exception {
+        Disposable subscription = mock(Disposable.class);
+        Runnable cancelConsumer = mock(Runnable.class);
+        AtomicInteger inFlight = (AtomicInteger) ReflectionTestUtils.getField(pipeline, "inFlight");
+        ReflectionTestUtils.setField(pipeline, "subscription", subscription);
+        ReflectionTestUtils.setField(pipeline, "cancelConsumer", cancelConsumer);
+        inFlight.set(1);
+
+        Thread settling = new Thread(() -> {
+            verify(cancelConsumer, timeout(1000)).run();
+            verify(subscription, never()).dispose();
+            inFlight.decrementAndGet();
+        });
+        settling.start();
+
+        pipeline.stop();
+        settling.join();
+
+        verify(subscription).dispose();
+        assertThat(pipeline.isRunning()).isFalse();
+    }
+
+    private ReactiveValidationPipeline.Delivery delivery(long deliveryTag, String body) {
+        return new ReactiveValidationPipeline.Delivery(channel, deliveryTag,
+            body.getBytes(StandardCharsets.UTF_8), null);
+    }
+}
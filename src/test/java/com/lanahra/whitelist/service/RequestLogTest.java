@@ -0,0 +1,38 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.Test;
+
+public class RequestLogTest {
+
+    @Test
+    public void testTraced_client() {
+        RequestLog requestLog = new RequestLog();
+
+        requestLog.configure(null, "client", null);
+
+        assertThat(requestLog.isTraced("client")).isTrue();
+        assertThat(requestLog.isTraced("other")).isFalse();
+        assertThat(requestLog.isTraced(null)).isFalse();
+
+        requestLog.configure(null, "client", false);
+
+        assertThat(requestLog.isTraced("client")).isFalse();
+    }
+
+    @Test
+    public void testTraced_sampleRate() {
+        RequestLog requestLog = new RequestLog();
+
+        requestLog.configure(2.0, null, null);
+
+        assertThat(requestLog.state()).containsEntry("sampleRate", 1.0);
+        assertThat(requestLog.isTraced("client")).isTrue();
+        assertThat(requestLog.isTraced(null)).isTrue();
+
+        requestLog.configure(0.0, null, null);
+
+        assertThat(requestLog.isTraced("client")).isFalse();
+    }
+}
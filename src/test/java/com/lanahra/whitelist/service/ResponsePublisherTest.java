@@ -0,0 +1,128 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.CorrelationData;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ResponsePublisherTest {
+
+    private RabbitTemplate template;
+
+    private ResponsePublisher publisher;
+
+    @Before
+    public void setUp() {
+        template = mock(RabbitTemplate.class);
+
+        publisher = new ResponsePublisher();
+        ReflectionTestUtils.setField(publisher, "validationTemplate", template);
+        ReflectionTestUtils.setField(publisher, "responseExchange", "response.exchange");
+        ReflectionTestUtils.setField(publisher, "responseRoutingKey", "response.routing.key");
+        ReflectionTestUtils.setField(publisher, "metrics", new ServiceMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(publisher, "retryDelay", 1L);
+        publisher.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        publisher.shutdown();
+    }
+
+    @Test
+    public void testPublish_confirmed() {
+        CompletableFuture<Void> future = publisher.publish(response(1));
+
+        assertThat(future).isNotDone();
+        assertThat(publisher.pending()).isEqualTo(1);
+
+        publisher.confirm(correlation(1), true, null);
+
+        assertThat(future).isCompleted();
+        assertThat(publisher.pending()).isZero();
+    }
+
+    @Test
+    public void testPublish_nackRetried() {
+        CompletableFuture<Void> future = publisher.publish(response(1));
+        CorrelationData first = correlation(1);
+
+        publisher.confirm(first, false, "nack");
+
+        CorrelationData retry = correlation(2);
+        assertThat(retry.getId()).isNotEqualTo(first.getId());
+        assertThat(future).isNotDone();
+
+        publisher.confirm(retry, true, null);
+
+        assertThat(future).isCompleted();
+    }
+
+    @Test
+    public void testPublish_retriesExhausted() {
+        ReflectionTestUtils.setField(publisher, "maxRetries", 0);
+
+        CompletableFuture<Void> future = publisher.publish(response(1));
+
+        publisher.confirm(correlation(1), false, "nack");
+
+        assertThat(future).isCompletedExceptionally();
+        assertThat(publisher.pending()).isZero();
+    }
+
+    @Test
+    public void testPublish_saturated() {
+        publisher.shutdown();
+        ReflectionTestUtils.setField(publisher, "maxInFlight", 1);
+        publisher.initialize();
+
+        CompletableFuture<Void> first = publisher.publish(response(1));
+        CompletableFuture<Void> second = publisher.publish(response(2));
+
+        assertThat(second).isNotDone();
+        assertThat(publisher.pending()).isEqualTo(1);
+        assertThat(publisher.waiting()).isEqualTo(1);
+
+        publisher.confirm(correlation(1), true, null);
+
+        assertThat(first).isCompleted();
+
+        publisher.confirm(correlation(2), true, null);
+
+        assertThat(second).isCompleted();
+        assertThat(publisher.waiting()).isZero();
+    }
+
+    @Test
+    public void testPublish_withoutConfirms() {
+        ReflectionTestUtils.setField(publisher, "confirms", false);
+
+        assertThat(publisher.publish(response(1))).isCompleted();
+        verify(template).convertAndSend(any(ValidationResponse.class));
+    }
+
+    /**
+     * @return correlation of the last publish, once published the given times
+     */
+    private CorrelationData correlation(int times) {
+        ArgumentCaptor<CorrelationData> captor = ArgumentCaptor.forClass(CorrelationData.class);
+        verify(template, timeout(1000).times(times)).convertAndSend(
+            eq("response.exchange"), eq("response.routing.key"), any(ValidationResponse.class), captor.capture());
+        return captor.getValue();
+    }
+
+    private static ValidationResponse response(int correlationId) {
+        ValidationResponse response = new ValidationResponse();
+        response.setMatch(true);
+        response.setCorrelationId(correlationId);
+        return response;
+    }
+}
@@ -3,23 +3,32 @@ package com.lanahra.whitelist.service;
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import com.lanahra.whitelist.entity.BulkExpression;
 import com.lanahra.whitelist.entity.ClientExpression;
 import com.lanahra.whitelist.entity.ClientWhitelistRepository;
 import com.lanahra.whitelist.entity.Expression;
+import com.lanahra.whitelist.entity.ExpressionBatchRepository;
+import com.lanahra.whitelist.entity.ExpressionScanRepository;
 import com.lanahra.whitelist.entity.GlobalExpression;
 import com.lanahra.whitelist.entity.GlobalWhitelistRepository;
+import com.lanahra.whitelist.matcher.Whitelist;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.BiConsumer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.dao.DataIntegrityViolationException;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.PageImpl;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ServiceTest {
@@ -33,6 +42,32 @@ public class ServiceTest {
     @Mock
     private ClientWhitelistRepository clientWhitelistRepository;
 
+    @Mock
+    private ExpressionBatchRepository expressionBatchRepository;
+
+    @Mock
+    private ExpressionScanRepository expressionScanRepository;
+
+    @Spy
+    private Whitelist whitelist = new Whitelist();
+
+    private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Spy
+    private ServiceMetrics metrics = new ServiceMetrics(registry);
+
+    @Spy
+    private RequestLog requestLog = new RequestLog();
+
+    @Spy
+    private ShardRouter shardRouter = new ShardRouter();
+
+    @Mock
+    private ChangePropagation changePropagation;
+
+    @Mock
+    private WhitelistSnapshot snapshot;
+
     @Test
     public void testInsertion_globalException() {
         GlobalExpression expression = new GlobalExpression();
@@ -43,6 +78,7 @@ public class ServiceTest {
         Expression result = service.processExpressionInsertion((Expression) expression);
 
         assertThat(result).isNull();
+        assertThat(registry.counter("whitelist.insertions", "result", "duplicate").count()).isEqualTo(1);
     }
 
     @Test
@@ -56,6 +92,8 @@ public class ServiceTest {
         Expression result = service.processExpressionInsertion((Expression) expression);
 
         assertThat(result.getRegex()).isEqualTo(expression.getRegex());
+
+        verify(changePropagation).publish(null, Arrays.asList("expression"));
     }
 
     @Test
@@ -69,6 +107,8 @@ public class ServiceTest {
         Expression result = service.processExpressionInsertion((Expression) expression);
 
         assertThat(result).isNull();
+
+        verifyZeroInteractions(changePropagation);
     }
 
     @Test
@@ -87,22 +127,141 @@ public class ServiceTest {
     }
 
     @Test
-    public void testValidation_emptyDatasource() {
-        Page<Expression> expressions = new PageImpl<>(new ArrayList<>());
+    public void testInsertion_batch() {
+        Expression globalExpression = new Expression();
+        globalExpression.setRegex("global");
+
+        Expression clientExpression = new Expression();
+        clientExpression.setClient("client");
+        clientExpression.setRegex("url");
+
+        Expression duplicateExpression = new Expression();
+        duplicateExpression.setClient("client");
+        duplicateExpression.setRegex("url");
+
+        when(expressionBatchRepository.insertIgnore(any()))
+            .thenReturn(Arrays.asList(clientExpression));
+
+        List<Expression> result = service.processExpressionInsertions(
+            Arrays.asList(globalExpression, clientExpression, duplicateExpression));
+
+        assertThat(result).containsExactly(clientExpression);
+        assertThat(whitelist.globalSize()).isZero();
+        assertThat(whitelist.clientSize("client")).isEqualTo(1);
+        assertThat(registry.counter("whitelist.insertions", "result", "inserted").count()).isEqualTo(1);
+        assertThat(registry.counter("whitelist.insertions", "result", "duplicate").count()).isEqualTo(2);
+
+        verify(expressionBatchRepository).insertIgnore(Arrays.asList(globalExpression, clientExpression));
+        verify(changePropagation).publish("client", Arrays.asList("url"));
+        verifyNoMoreInteractions(changePropagation);
+    }
+
+    @Test
+    public void testInsertion_bulk() {
+        BulkExpression bulkExpression = new BulkExpression();
+        bulkExpression.setClient("client");
+        bulkExpression.setRegexes(Arrays.asList("first", "second", "first"));
+
+        when(expressionBatchRepository.insertIgnore(any()))
+            .thenAnswer(invocation -> invocation.getArgument(0));
+
+        List<Expression> result = service.processBulkExpressionInsertion(bulkExpression);
+
+        assertThat(result).extracting(Expression::getRegex).containsExactly("first", "second");
+        assertThat(whitelist.clientSize("client")).isEqualTo(2);
+        assertThat(whitelist.match("client", "second")).isEqualTo("second");
+
+        verify(whitelist).addAll("client", Arrays.asList("first", "second"));
+    }
+
+    @Test
+    public void testChange_inOrder() {
+        ChangeEvent event = new ChangeEvent();
+        event.setOrigin("other");
+        event.setVersion(1L);
+        event.setRegexes(Arrays.asList("first", "second", "first"));
+
+        when(changePropagation.receive(event)).thenReturn(ChangePropagation.Delivery.IN_ORDER);
+
+        int added = service.processChangeEvent(event);
+
+        assertThat(added).isEqualTo(2);
+        assertThat(whitelist.globalSize()).isEqualTo(2);
+        assertThat(registry.counter("whitelist.changes", "delivery", "in_order").count()).isEqualTo(1);
+
+        verifyZeroInteractions(globalWhitelistRepository, expressionBatchRepository);
+    }
+
+    @Test
+    public void testChange_gap() {
+        ChangeEvent event = new ChangeEvent();
+        event.setOrigin("other");
+        event.setVersion(3L);
+        event.setClient("client");
+        event.setRegexes(Arrays.asList("second"));
+
+        when(changePropagation.receive(event)).thenReturn(ChangePropagation.Delivery.GAP);
+
+        when(expressionScanRepository.scanClient(eq("client"), eq(0), any()))
+            .thenAnswer(invocation -> {
+                BiConsumer<String, List<String>> consumer = invocation.getArgument(2);
+                consumer.accept("client", Arrays.asList("first", "second"));
+                return 2;
+            });
+
+        int added = service.processChangeEvent(event);
+
+        assertThat(added).isEqualTo(2);
+        assertThat(whitelist.match("client", "first")).isEqualTo("first");
+        assertThat(registry.counter("whitelist.changes", "delivery", "gap").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testLoad_snapshot() {
+        Expression expression = new Expression();
+        expression.setId(1042);
+        expression.setClient("client");
+        expression.setRegex("url");
+
+        when(snapshot.restore(any())).thenReturn(new WhitelistSnapshot.Watermark(5, 1041));
+
+        when(expressionScanRepository.scanGlobal(anyInt(), any()))
+            .thenAnswer(invocation -> invocation.getArgument(0));
+
+        when(expressionScanRepository.scanClients(anyInt(), any()))
+            .thenAnswer(scan(Arrays.asList(expression)));
 
-        when(globalWhitelistRepository.findAll(any(Pageable.class)))
-            .thenReturn(expressions);
+        service.loadWhitelist();
 
-        when(clientWhitelistRepository.findByClient(any(String.class), any(Pageable.class)))
-            .thenReturn(expressions);
+        assertThat(whitelist.match("client", "url")).isEqualTo("url");
 
+        verify(expressionScanRepository).scanGlobal(eq(0), any());
+        verify(expressionScanRepository).scanClients(eq(41), any());
+        verify(snapshot, never()).save(any());
+
+        when(snapshot.isEnabled()).thenReturn(true);
+
+        service.saveSnapshot();
+
+        ArgumentCaptor<WhitelistSnapshot.Watermark> watermark = ArgumentCaptor.forClass(WhitelistSnapshot.Watermark.class);
+        verify(snapshot).save(watermark.capture());
+
+        assertThat(watermark.getValue().getGlobal()).isEqualTo(5);
+        assertThat(watermark.getValue().getClient()).isEqualTo(1042);
+    }
+
+    @Test
+    public void testValidation_emptyDatasource() {
+        stubScan(new ArrayList<>(), new ArrayList<>());
+
+        service.loadWhitelist();
 
         ValidationRequest request = new ValidationRequest();
         request.setClient("client");
         request.setUrl("url");
         request.setCorrelationId(0);
 
-        ValidationResponse response = service.processExpressionValidation(request);
+        ValidationResponse response = service.processExpressionValidation(request).join();
 
         assertThat(response.getMatch()).isFalse();
         assertThat(response.getRegex()).isNull();
@@ -124,23 +283,16 @@ public class ServiceTest {
         List<Expression> clientList = new ArrayList<>();
         clientList.add(clientExpression);
 
-        Page<Expression> globalExpressions = new PageImpl<>(globalList);
-
-        when(globalWhitelistRepository.findAll(any(Pageable.class)))
-            .thenReturn(globalExpressions);
-
-        Page<Expression> clientExpressions = new PageImpl<>(clientList);
-
-        when(clientWhitelistRepository.findByClient(any(String.class), any(Pageable.class)))
-            .thenReturn(clientExpressions);
+        stubScan(globalList, clientList);
 
+        service.loadWhitelist();
 
         ValidationRequest request = new ValidationRequest();
         request.setClient("client");
         request.setUrl("url");
         request.setCorrelationId(0);
 
-        ValidationResponse response = service.processExpressionValidation(request);
+        ValidationResponse response = service.processExpressionValidation(request).join();
 
         assertThat(response.getMatch()).isFalse();
         assertThat(response.getRegex()).isNull();
@@ -162,22 +314,16 @@ public class ServiceTest {
         List<Expression> clientList = new ArrayList<>();
         clientList.add(clientExpression);
 
-        Page<Expression> globalExpressions = new PageImpl<>(globalList);
-
-        when(globalWhitelistRepository.findAll(any(Pageable.class)))
-            .thenReturn(globalExpressions);
+        stubScan(globalList, clientList);
 
-        Page<Expression> clientExpressions = new PageImpl<>(clientList);
-
-        when(clientWhitelistRepository.findByClient(any(String.class), any(Pageable.class)))
-            .thenReturn(clientExpressions);
+        service.loadWhitelist();
 
         ValidationRequest request = new ValidationRequest();
         request.setClient("client");
         request.setUrl("url");
         request.setCorrelationId(0);
 
-        ValidationResponse response = service.processExpressionValidation(request);
+        ValidationResponse response = service.processExpressionValidation(request).join();
 
         assertThat(response.getMatch()).isTrue();
         assertThat(response.getRegex()).isEqualTo(globalExpression.getRegex());
@@ -199,26 +345,106 @@ public class ServiceTest {
         List<Expression> clientList = new ArrayList<>();
         clientList.add(clientExpression);
 
-        Page<Expression> globalExpressions = new PageImpl<>(globalList);
+        stubScan(globalList, clientList);
+
+        service.loadWhitelist();
 
-        when(globalWhitelistRepository.findAll(any(Pageable.class)))
-            .thenReturn(globalExpressions);
+        ValidationRequest request = new ValidationRequest();
+        request.setClient("client");
+        request.setUrl("url");
+        request.setCorrelationId(0);
 
-        Page<Expression> clientExpressions = new PageImpl<>(clientList);
+        ValidationResponse response = service.processExpressionValidation(request).join();
 
-        when(clientWhitelistRepository.findByClient(any(String.class), any(Pageable.class)))
-            .thenReturn(clientExpressions);
+        assertThat(response.getMatch()).isTrue();
+        assertThat(response.getRegex()).isEqualTo(clientExpression.getRegex());
+        assertThat(response.getCorrelationId()).isEqualTo(request.getCorrelationId());
+    }
 
+    @Test
+    public void testValidation_matchInsertedExpression() {
+        Expression expression = new Expression();
+        expression.setClient("client");
+        expression.setRegex("url");
+
+        when(clientWhitelistRepository.save(any(ClientExpression.class)))
+            .thenReturn(new ClientExpression(expression));
+
+        service.processExpressionInsertion(expression);
 
         ValidationRequest request = new ValidationRequest();
         request.setClient("client");
         request.setUrl("url");
         request.setCorrelationId(0);
 
-        ValidationResponse response = service.processExpressionValidation(request);
+        ValidationResponse response = service.processExpressionValidation(request).join();
 
         assertThat(response.getMatch()).isTrue();
-        assertThat(response.getRegex()).isEqualTo(clientExpression.getRegex());
+        assertThat(response.getRegex()).isEqualTo(expression.getRegex());
         assertThat(response.getCorrelationId()).isEqualTo(request.getCorrelationId());
+
+        verify(clientWhitelistRepository, never()).findByClient(any(String.class), any(Pageable.class));
+    }
+
+    @Test
+    public void testValidation_batch() {
+        Expression globalExpression = new Expression();
+        globalExpression.setRegex("global");
+
+        Expression clientExpression = new Expression();
+        clientExpression.setClient("client");
+        clientExpression.setRegex("url");
+
+        whitelist.add(globalExpression);
+        whitelist.add(clientExpression);
+
+        List<ValidationRequest> requests = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            ValidationRequest request = new ValidationRequest();
+            request.setClient(i % 2 == 0 ? "client" : "other");
+            request.setUrl(i < 2 ? "url" : "global");
+            request.setCorrelationId(i);
+            requests.add(request);
+        }
+
+        List<ValidationResponse> responses = service.processExpressionValidations(requests).join();
+
+        assertThat(responses).extracting(ValidationResponse::getCorrelationId)
+            .containsExactly(0, 1, 2, 3);
+
+        assertThat(responses).extracting(ValidationResponse::getRegex)
+            .containsExactly("url", null, "global", "global");
+
+        assertThat(registry.counter("whitelist.validation.results", "result", "match").count()).isEqualTo(3);
+        assertThat(registry.counter("whitelist.validation.results", "result", "no_match").count()).isEqualTo(1);
+        assertThat(registry.timer("whitelist.validation.batch", "stage", "match").count()).isEqualTo(1);
+    }
+
+    /**
+     * Stub a full scan of both repositories
+     */
+    private void stubScan(List<Expression> global, List<Expression> client) {
+        when(expressionScanRepository.scanGlobal(eq(0), any())).thenAnswer(scan(global));
+        when(expressionScanRepository.scanClients(eq(0), any())).thenAnswer(scan(client));
+    }
+
+    /**
+     * Pass every Expression to the consumer, the last argument of a scan
+     */
+    private static Answer<Integer> scan(List<Expression> expressions) {
+        return invocation -> {
+            BiConsumer<String, List<String>> consumer = invocation.getArgument(invocation.getArguments().length - 1);
+
+            for (Expression expression : expressions) {
+                consumer.accept(expression.getClient(), Collections.singletonList(expression.getRegex()));
+            }
+
+            return expressions.stream()
+                .filter(expression -> expression.getId() != null)
+                .mapToInt(Expression::getId)
+                .max()
+                .orElse(0);
+        };
     }
 }
@@ -0,0 +1,98 @@
+package com.lanahra.whitelist.service;
+
+import static org.assertj.core.api.Assertions.*;
+
+import com.lanahra.whitelist.matcher.Whitelist;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class WhitelistSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "whitelist.snapshot");
+    }
+
+    @Test
+    public void testRestore_disabled() {
+        WhitelistSnapshot snapshot = snapshot(new Whitelist(), "");
+
+        snapshot.save(new WhitelistSnapshot.Watermark(1, 1));
+
+        assertThat(snapshot.isEnabled()).isFalse();
+        assertThat(snapshot.restore(watermark -> true)).isNull();
+    }
+
+    @Test
+    public void testRestore_missing() {
+        assertThat(snapshot(new Whitelist(), file.getPath()).restore(watermark -> true)).isNull();
+    }
+
+    @Test
+    public void testRestore_saved() {
+        Whitelist saved = new Whitelist();
+        saved.addAll(null, Arrays.asList("global", "second"));
+        saved.addAll("client", Arrays.asList("https://example\\.com/.*", "été"));
+
+        snapshot(saved, file.getPath()).save(new WhitelistSnapshot.Watermark(2, 7));
+
+        Whitelist restored = new Whitelist();
+        WhitelistSnapshot.Watermark watermark = snapshot(restored, file.getPath()).restore(w -> true);
+
+        assertThat(watermark.getGlobal()).isEqualTo(2);
+        assertThat(watermark.getClient()).isEqualTo(7);
+        assertThat(restored.globalSize()).isEqualTo(2);
+        assertThat(restored.clientSize("client")).isEqualTo(2);
+        assertThat(restored.match("client", "https://example.com/index")).isEqualTo("https://example\\.com/.*");
+        assertThat(restored.match("client", "été")).isEqualTo("été");
+        assertThat(folder.getRoot().list()).containsExactly(file.getName());
+    }
+
+    @Test
+    public void testRestore_notCurrent() {
+        Whitelist saved = new Whitelist();
+        saved.addAll(null, Arrays.asList("global"));
+
+        snapshot(saved, file.getPath()).save(new WhitelistSnapshot.Watermark(1, 0));
+
+        Whitelist restored = new Whitelist();
+
+        assertThat(snapshot(restored, file.getPath()).restore(w -> false)).isNull();
+        assertThat(restored.globalSize()).isZero();
+    }
+
+    @Test
+    public void testRestore_truncated() throws Exception {
+        Whitelist saved = new Whitelist();
+        saved.addAll(null, Arrays.asList("global"));
+
+        snapshot(saved, file.getPath()).save(new WhitelistSnapshot.Watermark(1, 0));
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+
+        assertThat(snapshot(new Whitelist(), file.getPath()).restore(w -> true)).isNull();
+    }
+
+    private static WhitelistSnapshot snapshot(Whitelist whitelist, String path) {
+        ShardRouter shardRouter = new ShardRouter();
+        shardRouter.initialize();
+
+        WhitelistSnapshot snapshot = new WhitelistSnapshot();
+        ReflectionTestUtils.setField(snapshot, "whitelist", whitelist);
+        ReflectionTestUtils.setField(snapshot, "shardRouter", shardRouter);
+        ReflectionTestUtils.setField(snapshot, "path", path);
+        return snapshot;
+    }
+}